@@ -0,0 +1,33 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Accès aux PDF du projet principal depuis le jar des benchmarks (ils sont dans le classpath).
+ */
+final class BenchmarkResources {
+
+    private BenchmarkResources() {
+    }
+
+    static byte[] read(String name) {
+        try (InputStream in = BenchmarkResources.class.getClassLoader().getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Ressource introuvable : " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static Document parse(byte[] pdf) {
+        return new ApacheTikaDocumentParser().parse(new ByteArrayInputStream(pdf));
+    }
+}
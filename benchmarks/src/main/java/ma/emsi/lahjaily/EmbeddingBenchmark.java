@@ -0,0 +1,70 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coût par segment de AllMiniLmL6V2EmbeddingModel.embedAll selon la taille des lots.
+ * Chaque invocation embedde les mêmes {@value #SEGMENTS} segments de rag.pdf, découpés en lots de batchSize :
+ * le score est donc directement comparable d'une taille de lot à l'autre.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    static final int SEGMENTS = 128;
+
+    @Param({"1", "8", "32", "128"})
+    public int batchSize;
+
+    private EmbeddingModel model;
+    private List<List<TextSegment>> batches;
+
+    @Setup
+    public void setUp() {
+        model = new AllMiniLmL6V2EmbeddingModel();
+        List<TextSegment> segments = DocumentSplitters.recursive(300, 30)
+                .split(BenchmarkResources.parse(BenchmarkResources.read("rag.pdf")));
+        List<TextSegment> sample = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            sample.add(segments.get(i % segments.size())); // on boucle si le PDF a moins de segments
+        }
+        batches = new ArrayList<>();
+        for (int from = 0; from < SEGMENTS; from += batchSize) {
+            batches.add(sample.subList(from, Math.min(SEGMENTS, from + batchSize)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public void embedAll(Blackhole blackhole) {
+        for (List<TextSegment> batch : batches) {
+            List<Embedding> embeddings = model.embedAll(batch).content();
+            blackhole.consume(embeddings);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compare la mémoire (heap) et la latence de recherche de l'InMemoryEmbeddingStore et du
+ * FlatVectorEmbeddingStore sur des segments synthétiques (dimension 384, texte de 300 caractères,
+ * mêmes métadonnées que DocumentSplitters : file_name, absolute_directory_path, index).
+ * <p>
+ * Arguments optionnels : tailles séparées par des virgules (défaut 100000,1000000) et nombre de requêtes.
+ * <pre>
+ * java -Xmx12g --add-modules jdk.incubator.vector -cp benchmarks/target/benchmarks.jar ma.emsi.lahjaily.FlatStoreBenchmark 100000,1000000 50
+ * </pre>
+ */
+public class FlatStoreBenchmark {
+
+    private static final int DIMENSION = 384;
+    private static final int BATCH = 10_000;
+
+    public static void main(String[] args) {
+        int[] sizes = Arrays.stream((args.length > 0 ? args[0] : "100000,1000000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        System.out.println("Noyau de produit scalaire : " + (VectorMath.simd() ? "SIMD (API Vector)" : "scalaire"));
+        System.out.println("    segments  magasin                 heap (Mo)  moyenne (ms)  p99 (ms)");
+
+        for (int size : sizes) {
+            run("InMemoryEmbeddingStore", InMemoryEmbeddingStore::new, size, queryCount);
+            run("FlatVectorEmbeddingStore", FlatVectorEmbeddingStore::new, size, queryCount);
+        }
+    }
+
+    private static void run(String name, Supplier<EmbeddingStore<TextSegment>> factory, int size, int queryCount) {
+        long before = usedHeapAfterGc();
+        EmbeddingStore<TextSegment> store = factory.get();
+        Random random = new Random(42);
+        for (int from = 0; from < size; from += BATCH) {
+            int count = Math.min(BATCH, size - from);
+            List<String> ids = new ArrayList<>(count);
+            List<Embedding> embeddings = new ArrayList<>(count);
+            List<TextSegment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add("segment-" + (from + i));
+                embeddings.add(Embedding.from(randomVector(random)));
+                segments.add(TextSegment.from(randomText(random), Metadata.from("file_name", "rapport.pdf")
+                        .put("absolute_directory_path", "/data/documents/rapports")
+                        .put("index", String.valueOf(from + i))));
+            }
+            store.addAll(ids, embeddings, segments);
+        }
+        long heapBytes = usedHeapAfterGc() - before;
+
+        Random queries = new Random(7);
+        for (int i = 0; i < 5; i++) {
+            store.search(request(randomVector(queries))); // chauffe du JIT
+        }
+        long[] nanos = new long[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            EmbeddingSearchRequest request = request(randomVector(queries));
+            long start = System.nanoTime();
+            store.search(request);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        double mean = Arrays.stream(nanos).average().orElse(0) / 1e6;
+        double p99 = nanos[Math.min(nanos.length - 1, (int) Math.ceil(nanos.length * 0.99) - 1)] / 1e6;
+        System.out.printf("%12d  %-24s %9d  %12.2f  %8.2f%n", size, name, heapBytes / (1024 * 1024), mean, p99);
+    }
+
+    private static EmbeddingSearchRequest request(float[] vector) {
+        return EmbeddingSearchRequest.builder()
+                .queryEmbedding(Embedding.from(vector))
+                .maxResults(2)
+                .minScore(0.5)
+                .build();
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int d = 0; d < DIMENSION; d++) {
+            vector[d] = random.nextFloat() - 0.5f;
+        }
+        return vector;
+    }
+
+    private static String randomText(Random random) {
+        char[] text = new char[300];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,127 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Rapport rappel / latence du HnswEmbeddingStore comparé à la recherche exacte (InMemoryEmbeddingStore).
+ * <p>
+ * Les vecteurs sont synthétiques (dimension 384, regroupés autour de centres comme de vrais embeddings
+ * de documents). Arguments optionnels : nombre de vecteurs (défaut 20000) et nombre de requêtes (défaut 200).
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar ma.emsi.lahjaily.HnswRecallReport 100000 500
+ * </pre>
+ */
+public class HnswRecallReport {
+
+    private static final int DIMENSION = 384;
+    private static final int[] M_VALUES = {8, 16, 32};
+    private static final int[] EF_CONSTRUCTION_VALUES = {100, 200};
+    private static final int[] EF_SEARCH_VALUES = {16, 32, 64, 128, 256};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(7);
+        List<Embedding> embeddings = clusteredVectors(count, random);
+        List<Embedding> queries = clusteredVectors(queryCount, random);
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("v" + i);
+            segments.add(TextSegment.from("segment " + i));
+        }
+
+        // Référence exacte
+        EmbeddingStore<TextSegment> exact = new InMemoryEmbeddingStore<>();
+        exact.addAll(ids, embeddings, segments);
+        List<List<EmbeddingMatch<TextSegment>>> expected2 = new ArrayList<>();
+        List<List<EmbeddingMatch<TextSegment>>> expected10 = new ArrayList<>();
+        queries.forEach(query -> exact.search(request(query, 2, 0.5))); // chauffe du JIT
+        long exactNanos = 0;
+        for (Embedding query : queries) {
+            long start = System.nanoTime();
+            expected2.add(exact.search(request(query, 2, 0.5)).matches());
+            exactNanos += System.nanoTime() - start;
+            expected10.add(exact.search(request(query, 10, 0)).matches());
+        }
+        System.out.printf("Recherche exacte : %d vecteurs, %.1f µs / requête%n%n", count, exactNanos / 1000.0 / queryCount);
+        System.out.println("   M  efC  efS  rappel@2  rappel@10  µs/requête  construction(s)");
+
+        for (int m : M_VALUES) {
+            for (int efConstruction : EF_CONSTRUCTION_VALUES) {
+                HnswEmbeddingStore hnsw = new HnswEmbeddingStore(m, efConstruction, EF_SEARCH_VALUES[0]);
+                long buildStart = System.nanoTime();
+                hnsw.addAll(ids, embeddings, segments);
+                double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+
+                for (int efSearch : EF_SEARCH_VALUES) {
+                    hnsw.efSearch(efSearch);
+                    double recall2 = 0;
+                    double recall10 = 0;
+                    long nanos = 0;
+                    for (int q = 0; q < queries.size(); q++) {
+                        long start = System.nanoTime();
+                        List<EmbeddingMatch<TextSegment>> found = hnsw.search(request(queries.get(q), 2, 0.5)).matches();
+                        nanos += System.nanoTime() - start;
+                        recall2 += recall(expected2.get(q), found);
+                        recall10 += recall(expected10.get(q), hnsw.search(request(queries.get(q), 10, 0)).matches());
+                    }
+                    System.out.printf("%4d %4d %4d  %8.3f  %9.3f  %10.1f  %15.1f%n", m, efConstruction, efSearch,
+                            recall2 / queryCount, recall10 / queryCount, nanos / 1000.0 / queryCount, buildSeconds);
+                }
+            }
+        }
+    }
+
+    private static EmbeddingSearchRequest request(Embedding query, int maxResults, double minScore) {
+        return EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(maxResults)
+                .minScore(minScore)
+                .build();
+    }
+
+    private static double recall(List<EmbeddingMatch<TextSegment>> expected, List<EmbeddingMatch<TextSegment>> found) {
+        if (expected.isEmpty()) {
+            return 1;
+        }
+        Set<String> foundIds = found.stream().map(EmbeddingMatch::embeddingId).collect(Collectors.toSet());
+        return expected.stream().filter(match -> foundIds.contains(match.embeddingId())).count() / (double) expected.size();
+    }
+
+    /**
+     * Vecteurs répartis autour de 100 centres (bruit gaussien), puis normalisés.
+     */
+    static List<Embedding> clusteredVectors(int count, Random random) {
+        Random centers = new Random(1); // mêmes centres pour les données et les requêtes
+        float[][] centroids = new float[100][DIMENSION];
+        for (float[] centroid : centroids) {
+            for (int d = 0; d < DIMENSION; d++) {
+                centroid[d] = (float) centers.nextGaussian();
+            }
+        }
+        List<Embedding> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] centroid = centroids[random.nextInt(centroids.length)];
+            float[] vector = Arrays.copyOf(centroid, DIMENSION);
+            for (int d = 0; d < DIMENSION; d++) {
+                vector[d] += (float) (random.nextGaussian() * 0.8);
+            }
+            vectors.add(Embedding.from(VectorMath.normalized(vector)));
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,44 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Temps d'extraction du texte d'un PDF par Tika (première étape de DocumentIngestor).
+ * Le fichier est lu une fois en mémoire : seule l'analyse est mesurée, pas le disque.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    @Param({"rag.pdf", "finance.pdf"})
+    public String file;
+
+    private byte[] pdf;
+
+    @Setup
+    public void setUp() {
+        pdf = BenchmarkResources.read(file);
+    }
+
+    @Benchmark
+    public Document parse() {
+        return BenchmarkResources.parse(pdf);
+    }
+}
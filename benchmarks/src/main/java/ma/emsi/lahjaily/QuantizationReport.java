@@ -0,0 +1,101 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Compare le QuantizedEmbeddingStore (INT8 et quantification par produit, avec et sans re-classement)
+ * à la recherche exacte du FlatVectorEmbeddingStore : part des requêtes dont les 2 premiers
+ * résultats sont identiques, heap occupé et latence.
+ * <p>
+ * Arguments optionnels : nombre de vecteurs (défaut 50000) et nombre de requêtes (défaut 200).
+ * <pre>
+ * java --add-modules jdk.incubator.vector -cp benchmarks/target/benchmarks.jar ma.emsi.lahjaily.QuantizationReport 200000 500
+ * </pre>
+ */
+public class QuantizationReport {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Random random = new Random(7);
+        List<Embedding> embeddings = HnswRecallReport.clusteredVectors(count, random);
+        List<Embedding> queries = HnswRecallReport.clusteredVectors(queryCount, random);
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ids.add("v" + i);
+            segments.add(TextSegment.from("segment " + i));
+        }
+
+        List<List<String>> expected = new ArrayList<>();
+        System.out.println("magasin                          heap (Mo)  top-2 identique  µs/requête");
+        run("exact (FlatVector)", FlatVectorEmbeddingStore::new, ids, embeddings, segments, queries, expected);
+        run("INT8 sans re-classement", () -> new QuantizedEmbeddingStore(QuantizedEmbeddingStore.Mode.INT8, 0, 48, 4096),
+                ids, embeddings, segments, queries, expected);
+        run("INT8 re-classement x4", () -> new QuantizedEmbeddingStore(QuantizedEmbeddingStore.Mode.INT8),
+                ids, embeddings, segments, queries, expected);
+        run("PQ 96 sans re-classement", () -> new QuantizedEmbeddingStore(QuantizedEmbeddingStore.Mode.PRODUCT, 0, 96, 4096),
+                ids, embeddings, segments, queries, expected);
+        run("PQ 96 re-classement x16", () -> new QuantizedEmbeddingStore(QuantizedEmbeddingStore.Mode.PRODUCT, 16, 96, 4096),
+                ids, embeddings, segments, queries, expected);
+        run("PQ 96 re-classement x64", () -> new QuantizedEmbeddingStore(QuantizedEmbeddingStore.Mode.PRODUCT),
+                ids, embeddings, segments, queries, expected);
+    }
+
+    /**
+     * Le premier appel (recherche exacte) remplit {@code expected} ; les suivants s'y comparent.
+     */
+    private static void run(String name, Supplier<EmbeddingStore<TextSegment>> factory, List<String> ids,
+                            List<Embedding> embeddings, List<TextSegment> segments, List<Embedding> queries,
+                            List<List<String>> expected) {
+        long before = FlatStoreBenchmark.usedHeapAfterGc();
+        EmbeddingStore<TextSegment> store = factory.get();
+        store.addAll(ids, embeddings, segments);
+        long heapBytes = FlatStoreBenchmark.usedHeapAfterGc() - before;
+
+        queries.forEach(query -> store.search(request(query))); // chauffe du JIT
+        boolean reference = expected.isEmpty();
+        int identical = 0;
+        long nanos = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            long start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> found = store.search(request(queries.get(q))).matches();
+            nanos += System.nanoTime() - start;
+            List<String> foundIds = found.stream().map(EmbeddingMatch::embeddingId).collect(Collectors.toList());
+            if (reference) {
+                expected.add(foundIds);
+            }
+            if (foundIds.equals(expected.get(q))) {
+                identical++;
+            }
+        }
+        System.out.printf("%-32s %9d  %14.1f%%  %10.1f%n", name, heapBytes / (1024 * 1024),
+                100.0 * identical / queries.size(), nanos / 1000.0 / queries.size());
+        if (store instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static EmbeddingSearchRequest request(Embedding query) {
+        return EmbeddingSearchRequest.builder()
+                .queryEmbedding(query)
+                .maxResults(2)
+                .minScore(0.5)
+                .build();
+    }
+}
@@ -0,0 +1,75 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Surcoût local du CustomQueryRouter de TestPasDeRag (gabarit de prompt, appel du ChatModel, analyse
+ * de la réponse), avec un ChatModel factice qui répond immédiatement : la latence réseau du LLM est exclue.
+ * La classe est dans le package ma.emsi.lahjaily car le routeur est package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    /** Réponse du LLM factice : "oui" route vers le PDF, "non" vers aucune source. */
+    @Param({"oui", "non"})
+    public String answer;
+
+    private TestPasDeRag.CustomQueryRouter router;
+    private Query query;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ChatModel stubModel = new ChatModel() {
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                return ChatResponse.builder().aiMessage(AiMessage.from(answer)).build();
+            }
+        };
+        ContentRetriever ragRetriever = q -> List.of();
+        router = new TestPasDeRag.CustomQueryRouter(stubModel, ragRetriever);
+        query = Query.from("Qu'est-ce que le RAG et à quoi sert un embedding ?");
+        // Le routeur journalise chaque décision sur la console : on la fait taire pendant la mesure
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public Collection<ContentRetriever> route() {
+        return router.route(query);
+    }
+}
@@ -0,0 +1,86 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recherche exhaustive (2 résultats, minScore 0.5) dans un ShardedEmbeddingStore de K shards
+ * PersistentEmbeddingStore en mémoire, sur le ForkJoinPool commun. shards=1 donne la référence
+ * sans parallélisme ; la latence doit baisser jusqu'à K = nombre de cœurs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ShardedSearchBenchmark {
+
+    private static final int BATCH = 10_000;
+    private static final int QUERIES = 64;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private ShardedEmbeddingStore store;
+    private EmbeddingSearchRequest[] requests;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<EmbeddingStore<TextSegment>> stores = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            stores.add(new PersistentEmbeddingStore());
+        }
+        store = new ShardedEmbeddingStore(stores, ShardedEmbeddingStore.Partitioning.BY_ID);
+        Random random = new Random(42);
+        for (int from = 0; from < size; from += BATCH) {
+            int count = Math.min(BATCH, size - from);
+            List<String> ids = new ArrayList<>(count);
+            List<TextSegment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add("segment-" + (from + i));
+                segments.add(TextSegment.from("segment " + (from + i)));
+            }
+            store.addAll(ids, HnswRecallReport.clusteredVectors(count, random), segments);
+        }
+        List<Embedding> queries = HnswRecallReport.clusteredVectors(QUERIES, new Random(7));
+        requests = new EmbeddingSearchRequest[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            requests[i] = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(queries.get(i))
+                    .maxResults(2)
+                    .minScore(0.5)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public EmbeddingSearchResult<TextSegment> search() {
+        EmbeddingSearchRequest request = requests[next];
+        next = (next + 1) % QUERIES;
+        return store.search(request);
+    }
+}
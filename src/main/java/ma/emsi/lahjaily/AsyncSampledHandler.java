@@ -0,0 +1,101 @@
+package ma.emsi.lahjaily;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler java.util.logging asynchrone et échantillonné, à placer devant un ConsoleHandler.
+ * <p>
+ * Les journaux détaillés (niveau inférieur à INFO, par exemple les requêtes et réponses complètes
+ * du LLM) ne sont gardés que pour une fraction {@code sampleRate} des enregistrements ; INFO et au-delà
+ * sont toujours gardés. L'écriture se fait sur un thread dédié : le thread de la requête ne fait que
+ * déposer l'enregistrement dans une file bornée, et si la file est pleine l'enregistrement est
+ * abandonné (et compté) plutôt que de bloquer.
+ */
+public class AsyncSampledHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 1_024;
+
+    private final Handler delegate;
+    private final double sampleRate;
+    private final BlockingQueue<LogRecord> queue;
+    private final Thread writer;
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param sampleRate fraction (0 à 1) des enregistrements détaillés à écrire
+     */
+    public AsyncSampledHandler(Handler delegate, double sampleRate) {
+        this(delegate, sampleRate, DEFAULT_CAPACITY);
+    }
+
+    public AsyncSampledHandler(Handler delegate, double sampleRate, int capacity) {
+        this.delegate = delegate;
+        this.sampleRate = sampleRate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = Thread.ofPlatform().daemon().name("journal-async").start(this::drain);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (record.getLevel().intValue() < Level.INFO.intValue()
+                && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return;
+        }
+        // La classe appelante est déduite de la pile du thread courant : à faire avant de changer de thread
+        record.getSourceClassName();
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                delegate.publish(queue.take());
+            }
+        } catch (InterruptedException e) {
+            // close() : on écrit ce qui reste sans attendre
+            for (LogRecord record = queue.poll(); record != null; record = queue.poll()) {
+                delegate.publish(record);
+            }
+        }
+        delegate.flush();
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(1_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    public long sampledOut() {
+        return sampledOut.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+}
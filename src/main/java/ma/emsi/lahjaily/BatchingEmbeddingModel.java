@@ -0,0 +1,200 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EmbeddingModel qui regroupe les appels en micro-lots.
+ * <ul>
+ *     <li>Requêtes unitaires ({@code embed}) : les requêtes concurrentes sont regroupées en un seul
+ *     {@code embedAll} (au plus {@code maxBatchSize} textes, attente maximale {@code maxWait}).
+ *     L'attente est adaptative : sans charge, une requête seule part immédiatement.</li>
+ *     <li>Grandes listes ({@code embedAll}) : découpées en blocs de {@code chunkSize} traités
+ *     sur plusieurs threads, puis réassemblées dans l'ordre.</li>
+ * </ul>
+ * Après {@link #close()}, les appels sont refusés (IllegalStateException) et les requêtes encore en
+ * file échouent au lieu d'attendre indéfiniment.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private final EmbeddingModel delegate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int chunkSize;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService chunkPool;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    // Statistiques
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate) {
+        this(delegate, 16, Duration.ofMillis(2), 64, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate, int maxBatchSize, Duration maxWait,
+                                  int chunkSize, int chunkThreads) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.chunkSize = chunkSize;
+        this.chunkPool = Executors.newFixedThreadPool(chunkThreads, runnable -> {
+            Thread thread = new Thread(runnable, "embedding-chunk");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatchLoop, "embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        ensureOpen();
+        Pending pending = new Pending(textSegment, new CompletableFuture<>());
+        queue.add(pending);
+        // Fermé entre-temps : si la requête est encore en file, plus personne ne la traitera
+        if (closed && queue.remove(pending)) {
+            throw closedException();
+        }
+        try {
+            return Response.from(pending.result().join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        ensureOpen();
+        if (textSegments.size() <= chunkSize) {
+            return delegate.embedAll(textSegments);
+        }
+        // Grande liste : blocs traités en parallèle, résultats remis dans l'ordre
+        List<CompletableFuture<Response<List<Embedding>>>> chunks = new ArrayList<>();
+        for (int from = 0; from < textSegments.size(); from += chunkSize) {
+            List<TextSegment> chunk = textSegments.subList(from, Math.min(textSegments.size(), from + chunkSize));
+            chunks.add(CompletableFuture.supplyAsync(() -> delegate.embedAll(chunk), chunkPool));
+        }
+        List<Embedding> embeddings = new ArrayList<>(textSegments.size());
+        TokenUsage tokenUsage = null;
+        for (CompletableFuture<Response<List<Embedding>>> chunk : chunks) {
+            Response<List<Embedding>> response = chunk.join();
+            embeddings.addAll(response.content());
+            tokenUsage = TokenUsage.sum(tokenUsage, response.tokenUsage());
+        }
+        return Response.from(embeddings, tokenUsage);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * Taille moyenne des micro-lots envoyés au modèle (requêtes unitaires uniquement).
+     */
+    public double averageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) requests.get() / count;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        chunkPool.shutdownNow();
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw closedException();
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("BatchingEmbeddingModel fermé");
+    }
+
+    private void dispatchLoop() {
+        try {
+            batchLoop();
+        } finally {
+            // Requêtes restantes (fermeture, ou arrêt inattendu du dispatcher) : aucune ne reste bloquée
+            closed = true;
+            for (Pending pending = queue.poll(); pending != null; pending = queue.poll()) {
+                pending.result().completeExceptionally(closedException());
+            }
+        }
+    }
+
+    private void batchLoop() {
+        int previousBatchSize = 1;
+        while (!closed) {
+            List<Pending> batch = new ArrayList<>(maxBatchSize);
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - 1);
+                // Attente adaptative : on n'attend des requêtes supplémentaires que s'il y a de la charge
+                if (batch.size() > 1 || previousBatchSize > 1) {
+                    long deadline = System.nanoTime() + maxWaitNanos;
+                    while (batch.size() < maxBatchSize) {
+                        Pending next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                batch.forEach(p -> p.result().completeExceptionally(e));
+                break;
+            }
+            previousBatchSize = batch.size();
+            dispatch(batch);
+        }
+    }
+
+    private void dispatch(List<Pending> batch) {
+        // Les textes identiques du même lot ne sont embeddés qu'une fois
+        Map<String, TextSegment> unique = new LinkedHashMap<>();
+        batch.forEach(p -> unique.putIfAbsent(p.segment().text(), p.segment()));
+        try {
+            List<TextSegment> segments = new ArrayList<>(unique.values());
+            List<Embedding> embeddings = delegate.embedAll(segments).content();
+            Map<String, Embedding> byText = new LinkedHashMap<>();
+            for (int i = 0; i < segments.size(); i++) {
+                byText.put(segments.get(i).text(), embeddings.get(i));
+            }
+            batch.forEach(p -> p.result().complete(byText.get(p.segment().text())));
+        } catch (Throwable t) {
+            // Error comprise (OutOfMemoryError, erreur native du modèle) : le lot échoue, le dispatcher continue
+            batch.forEach(p -> p.result().completeExceptionally(t));
+        }
+        requests.addAndGet(batch.size());
+        batches.incrementAndGet();
+    }
+
+    private record Pending(TextSegment segment, CompletableFuture<Embedding> result) {
+    }
+}
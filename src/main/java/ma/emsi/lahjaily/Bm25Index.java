@@ -0,0 +1,211 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Index inversé BM25 des segments d'un magasin, pour la recherche par mots exacts (sigles, codes,
+ * noms propres) que la similarité d'embeddings classe mal.
+ * <p>
+ * L'index est construit une fois, à partir des mêmes identifiants et segments que le magasin
+ * d'embeddings, puis n'est plus modifié. Les listes de postings de tous les termes sont rangées
+ * bout à bout dans deux tableaux d'entiers (numéros de segment et fréquences), repérés par un
+ * tableau de positions : quelques octets par occurrence, sans objet par posting.
+ * <p>
+ * Les mots sont mis en minuscules et sans accents ; les mots vides français et anglais sont ignorés,
+ * ainsi que les mots d'une lettre qui ne sont pas des nombres.
+ */
+public class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "le", "la", "les", "un", "une", "des", "de", "du", "au", "aux", "et", "ou", "en", "est", "sont",
+            "que", "qui", "quoi", "pour", "dans", "par", "sur", "avec", "ce", "cet", "cette", "ces", "il", "elle",
+            "ils", "on", "se", "sa", "son", "ses", "leur", "leurs", "ne", "pas", "plus", "quel", "quelle",
+            "quels", "quelles", "qu", "comment", "pourquoi", "the", "and", "of", "to", "in", "is", "are", "for",
+            "an", "as", "by", "with", "what", "how", "it", "or", "be", "at", "this", "that");
+
+    private final String[] ids;
+    private final TextSegment[] segments;
+    private final int[] docLengths;
+    private final double averageLength;
+    private final Map<String, Integer> terms;
+    // Postings du terme t : positions offsets[t] (incluse) à offsets[t + 1] (exclue) de docs et freqs
+    private final int[] offsets;
+    private final int[] docs;
+    private final int[] freqs;
+
+    /**
+     * @param ids identifiants des segments dans le magasin d'embeddings (même ordre que segments)
+     */
+    public Bm25Index(List<String> ids, List<TextSegment> segments) {
+        if (ids.size() != segments.size()) {
+            throw new IllegalArgumentException("ids et segments doivent avoir la même taille");
+        }
+        int n = segments.size();
+        this.ids = ids.toArray(new String[0]);
+        this.segments = segments.toArray(new TextSegment[0]);
+        this.docLengths = new int[n];
+        this.terms = new HashMap<>();
+
+        // 1re passe : fréquences par segment, listes provisoires par terme
+        List<int[]> termDocs = new ArrayList<>();
+        List<int[]> termFreqs = new ArrayList<>();
+        int[] sizes = new int[16];
+        long totalLength = 0;
+        for (int doc = 0; doc < n; doc++) {
+            Map<Integer, Integer> counts = new HashMap<>();
+            List<String> tokens = tokenize(this.segments[doc].text());
+            for (String token : tokens) {
+                Integer term = terms.get(token);
+                if (term == null) {
+                    term = terms.size();
+                    terms.put(token, term);
+                    termDocs.add(new int[4]);
+                    termFreqs.add(new int[4]);
+                    if (term == sizes.length) {
+                        sizes = Arrays.copyOf(sizes, sizes.length * 2);
+                    }
+                }
+                counts.merge(term, 1, Integer::sum);
+            }
+            docLengths[doc] = tokens.size();
+            totalLength += tokens.size();
+            for (Map.Entry<Integer, Integer> count : counts.entrySet()) {
+                int term = count.getKey();
+                int size = sizes[term];
+                if (size == termDocs.get(term).length) {
+                    termDocs.set(term, Arrays.copyOf(termDocs.get(term), size * 2));
+                    termFreqs.set(term, Arrays.copyOf(termFreqs.get(term), size * 2));
+                }
+                termDocs.get(term)[size] = doc;
+                termFreqs.get(term)[size] = count.getValue();
+                sizes[term] = size + 1;
+            }
+        }
+        this.averageLength = n == 0 ? 0 : (double) totalLength / n;
+
+        // 2e passe : concaténation des listes dans les tableaux définitifs
+        int termCount = terms.size();
+        this.offsets = new int[termCount + 1];
+        for (int term = 0; term < termCount; term++) {
+            offsets[term + 1] = offsets[term] + sizes[term];
+        }
+        this.docs = new int[offsets[termCount]];
+        this.freqs = new int[offsets[termCount]];
+        for (int term = 0; term < termCount; term++) {
+            System.arraycopy(termDocs.get(term), 0, docs, offsets[term], sizes[term]);
+            System.arraycopy(termFreqs.get(term), 0, freqs, offsets[term], sizes[term]);
+        }
+    }
+
+    /**
+     * Index des segments d'un magasin produit par DocumentIngestor ou ParallelIngestionEngine.
+     */
+    public static Bm25Index of(EmbeddingStore<TextSegment> store) {
+        if (!(store instanceof PersistentEmbeddingStore persistent)) {
+            throw new IllegalArgumentException("Magasin non parcourable : " + store.getClass().getSimpleName());
+        }
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        persistent.forEach((id, embedding, segment) -> {
+            ids.add(id);
+            segments.add(segment);
+        });
+        return new Bm25Index(ids, segments);
+    }
+
+    /**
+     * Les {@code maxResults} segments de meilleur score BM25 pour la requête, par score décroissant.
+     * Seuls les segments contenant au moins un mot de la requête sont retournés ; chacun indique la part
+     * de la requête qu'il couvre ({@link Match#coverage()}).
+     */
+    public List<Match> search(String query, int maxResults) {
+        int n = segments.length;
+        float[] scores = new float[n];
+        float[] covered = new float[n];
+        double queryWeight = 0;
+        int[] touched = new int[Math.min(n, 64)];
+        int touchedCount = 0;
+        for (String token : new LinkedHashSet<>(tokenize(query))) {
+            Integer term = terms.get(token);
+            int df = term == null ? 0 : offsets[term + 1] - offsets[term];
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            // Un mot absent du corpus compte dans la requête (avec l'IDF maximal) : aucun segment ne le couvre
+            queryWeight += idf;
+            if (term == null) {
+                continue;
+            }
+            for (int p = offsets[term]; p < offsets[term + 1]; p++) {
+                int doc = docs[p];
+                double tf = freqs[p];
+                double norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                if (scores[doc] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, Math.min(n, touched.length * 2));
+                    }
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+                covered[doc] += (float) idf;
+            }
+        }
+
+        PriorityQueue<Match> best = new PriorityQueue<>(Comparator.comparingDouble(Match::score));
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            best.add(new Match(ids[doc], segments[doc], scores[doc], covered[doc] / queryWeight));
+            if (best.size() > maxResults) {
+                best.poll();
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(Comparator.comparingDouble(Match::score).reversed());
+        return matches;
+    }
+
+    public int size() {
+        return segments.length;
+    }
+
+    public int termCount() {
+        return terms.size();
+    }
+
+    /**
+     * Mots de la requête ou du segment, dans l'ordre, tels qu'ils sont indexés.
+     */
+    static List<String> tokenize(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        List<String> tokens = new ArrayList<>();
+        for (String word : folded.split("[^\\p{L}\\p{N}]+")) {
+            if ((word.length() > 1 || (!word.isEmpty() && Character.isDigit(word.charAt(0))))
+                    && !STOP_WORDS.contains(word)) {
+                tokens.add(word);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param coverage part de la requête présente dans le segment : somme des IDF des mots de la requête
+     *                 trouvés dans le segment, divisée par celle de tous les mots de la requête (1 : tous
+     *                 les mots ; un mot rare pèse plus qu'un mot fréquent, un mot absent du corpus le plus)
+     */
+    public record Match(String id, TextSegment segment, double score, double coverage) {
+    }
+}
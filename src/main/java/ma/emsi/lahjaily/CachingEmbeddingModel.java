@@ -0,0 +1,114 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache LRU borné devant un EmbeddingModel, pour les embeddings des questions.
+ * <p>
+ * La clé est le texte normalisé (Unicode NFC, minuscules, espaces fusionnés). all-MiniLM-L6-v2
+ * utilise un tokenizer "uncased" : cette normalisation ne change pas l'embedding obtenu.
+ * Seuls les appels unitaires ({@code embed}) passent par le cache ; {@code embedAll}
+ * (ingestion) est transmis tel quel.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final EmbeddingModel delegate;
+    private final Map<String, Embedding> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate) {
+        this(delegate, DEFAULT_MAX_SIZE);
+    }
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, int maxSize) {
+        this.delegate = delegate;
+        // LinkedHashMap en ordre d'accès = LRU ; l'entrée la plus ancienne est évincée au-delà de maxSize
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Embedding> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Response<Embedding> embed(String text) {
+        String key = normalize(text);
+        Embedding cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return Response.from(cached);
+        }
+        misses.incrementAndGet();
+        // Le calcul se fait hors du verrou : deux threads peuvent calculer la même clé, sans conséquence
+        Response<Embedding> response = delegate.embed(text);
+        synchronized (cache) {
+            cache.put(key, response.content());
+        }
+        return response;
+    }
+
+    @Override
+    public Response<Embedding> embed(TextSegment textSegment) {
+        return embed(textSegment.text());
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+        return delegate.embedAll(textSegments);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        return new Stats(hits.get(), misses.get(), evictions.get(), size);
+    }
+
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC);
+        return normalized.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.0f%% de hits), %d évictions, %d entrées",
+                    hits, misses, hitRate() * 100, evictions, size);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache des décisions d'un QueryRouter coûteux (LanguageModelQueryRouter, CustomQueryRouter...).
+ * <p>
+ * Une question déjà routée (même texte normalisé) reprend la décision mémorisée. Si un modèle
+ * d'embedding est fourni, une question très proche d'une question déjà routée
+ * (cosinus ≥ {@code minSimilarity}) la reprend aussi. Les décisions expirent après {@code ttl}
+ * et le cache est borné à {@code maxSize} entrées (LRU).
+ * <p>
+ * Une décision vide (aucune source) n'est gardée que {@link #EMPTY_DECISION_TTL} et pour la même
+ * question seulement : c'est aussi ce que renvoie le LanguageModelQueryRouter quand l'appel au LLM
+ * échoue (repli DO_NOT_ROUTE), et une erreur passagère ne doit pas désactiver le RAG pendant une heure
+ * pour toutes les questions voisines.
+ */
+public class CachingQueryRouter implements QueryRouter {
+
+    private static final int DEFAULT_MAX_SIZE = 1_000;
+    private static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    private static final double DEFAULT_MIN_SIMILARITY = 0.95;
+    static final Duration EMPTY_DECISION_TTL = Duration.ofSeconds(30);
+
+    private final QueryRouter delegate;
+    private final EmbeddingModel embeddingModel;
+    private final long ttlNanos;
+    private final double minSimilarity;
+    private final Map<String, Decision> cache;
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong similarHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public CachingQueryRouter(QueryRouter delegate, EmbeddingModel embeddingModel) {
+        this(delegate, embeddingModel, DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_MIN_SIMILARITY);
+    }
+
+    /**
+     * @param embeddingModel modèle pour le voisinage des questions (null : correspondance exacte seulement)
+     */
+    public CachingQueryRouter(QueryRouter delegate, EmbeddingModel embeddingModel, int maxSize, Duration ttl,
+                              double minSimilarity) {
+        this.delegate = delegate;
+        this.embeddingModel = embeddingModel;
+        this.ttlNanos = ttl.toNanos();
+        this.minSimilarity = minSimilarity;
+        // LinkedHashMap en ordre d'accès = LRU
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Decision> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        String key = CachingEmbeddingModel.normalize(query.text());
+        long now = System.nanoTime();
+        synchronized (cache) {
+            Decision decision = cache.get(key);
+            if (decision != null && !decision.expired(now)) {
+                exactHits.incrementAndGet();
+                return decision.retrievers;
+            }
+        }
+
+        float[] vector = null;
+        if (embeddingModel != null) {
+            vector = VectorMath.normalized(embeddingModel.embed(query.text()).content().vector());
+            Decision neighbour = nearest(vector, now);
+            if (neighbour != null) {
+                similarHits.incrementAndGet();
+                put(key, new Decision(vector, neighbour.retrievers, neighbour.expiresAt));
+                return neighbour.retrievers;
+            }
+        }
+
+        misses.incrementAndGet();
+        Collection<ContentRetriever> retrievers = List.copyOf(delegate.route(query));
+        if (retrievers.isEmpty()) {
+            // Sans vecteur : la décision vide ne sert pas de voisine aux autres questions
+            put(key, new Decision(null, retrievers, System.nanoTime() + EMPTY_DECISION_TTL.toNanos()));
+        } else {
+            put(key, new Decision(vector, retrievers, System.nanoTime() + ttlNanos));
+        }
+        return retrievers;
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        return new Stats(exactHits.get(), similarHits.get(), misses.get(), expirations.get(), size);
+    }
+
+    /**
+     * Décision non expirée dont la question est la plus proche (au-dessus du seuil) ; purge les entrées expirées.
+     */
+    private Decision nearest(float[] vector, long now) {
+        Decision best = null;
+        double bestSimilarity = minSimilarity;
+        synchronized (cache) {
+            for (Iterator<Decision> it = cache.values().iterator(); it.hasNext(); ) {
+                Decision decision = it.next();
+                if (decision.expired(now)) {
+                    it.remove();
+                    expirations.incrementAndGet();
+                    continue;
+                }
+                if (decision.embedding == null) {
+                    continue;
+                }
+                double similarity = VectorMath.dot(vector, decision.embedding);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = decision;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void put(String key, Decision decision) {
+        synchronized (cache) {
+            cache.put(key, decision);
+        }
+    }
+
+    private record Decision(float[] embedding, Collection<ContentRetriever> retrievers, long expiresAt) {
+
+        boolean expired(long now) {
+            return now - expiresAt > 0;
+        }
+    }
+
+    public record Stats(long exactHits, long similarHits, long misses, long expirations, int size) {
+
+        public double hitRate() {
+            long total = exactHits + similarHits + misses;
+            return total == 0 ? 0 : (double) (exactHits + similarHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits exacts, %d hits par similarité, %d misses (%.0f%% de hits), %d expirations, %d entrées",
+                    exactHits, similarHits, misses, hitRate() * 100, expirations, size);
+        }
+    }
+}
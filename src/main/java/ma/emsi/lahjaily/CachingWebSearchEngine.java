@@ -0,0 +1,234 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache "requête → résultats" devant un WebSearchEngine (Tavily...).
+ * <p>
+ * Une question déjà posée (même texte normalisé et mêmes paramètres) ne déclenche pas de nouvel appel
+ * réseau tant que ses résultats ont moins de {@code ttl}. Le cache est borné à {@code maxSize}
+ * entrées (LRU) et peut être conservé sur disque entre deux exécutions ({@link #save()}).
+ */
+public class CachingWebSearchEngine implements WebSearchEngine {
+
+    private static final int MAGIC = 0x52414757; // "RAGW"
+    private static final int DEFAULT_MAX_SIZE = 1_000;
+    private static final Duration DEFAULT_TTL = Duration.ofHours(24);
+
+    private final WebSearchEngine delegate;
+    private final long ttlMillis;
+    private final Path file;
+    private final Map<String, Entry> cache;
+    private boolean dirty;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public CachingWebSearchEngine(WebSearchEngine delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL, null);
+    }
+
+    /**
+     * @param file fichier de persistance (null : cache en mémoire seulement) ; rechargé s'il existe
+     */
+    public CachingWebSearchEngine(WebSearchEngine delegate, int maxSize, Duration ttl, Path file) {
+        this.delegate = delegate;
+        this.ttlMillis = ttl.toMillis();
+        this.file = file;
+        // LinkedHashMap en ordre d'accès = LRU
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+        if (file != null && Files.isRegularFile(file)) {
+            load();
+        }
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        String key = key(request);
+        long now = System.currentTimeMillis();
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                if (entry.expiresAt > now) {
+                    hits.incrementAndGet();
+                    return entry.results;
+                }
+                cache.remove(key);
+                expirations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        WebSearchResults results = delegate.search(request);
+        synchronized (cache) {
+            cache.put(key, new Entry(results, System.currentTimeMillis() + ttlMillis));
+            dirty = true;
+        }
+        return results;
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        return new Stats(hits.get(), misses.get(), expirations.get(), size);
+    }
+
+    /**
+     * Écrit les entrées non expirées sur disque si le cache a été modifié (sans effet sans fichier).
+     */
+    public void save() {
+        if (file == null) {
+            return;
+        }
+        Map<String, Entry> snapshot;
+        synchronized (cache) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new LinkedHashMap<>(cache);
+            dirty = false;
+        }
+        long now = System.currentTimeMillis();
+        snapshot.values().removeIf(entry -> entry.expiresAt <= now);
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue().expiresAt);
+                    writeResults(out, entry.getValue().results);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Clé : texte normalisé de la requête et paramètres qui changent les résultats.
+     */
+    private static String key(WebSearchRequest request) {
+        return CachingEmbeddingModel.normalize(request.searchTerms())
+                + '|' + request.maxResults() + '|' + request.language() + '|' + request.geoLocation()
+                + '|' + request.startPage() + '|' + request.startIndex() + '|' + request.safeSearch();
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                return; // fichier d'une autre version : on repart d'un cache vide
+            }
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                long expiresAt = in.readLong();
+                WebSearchResults results = readResults(in);
+                if (expiresAt > now) {
+                    cache.put(key, new Entry(results, expiresAt));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ==== Sérialisation des résultats ====
+
+    private static void writeResults(DataOutputStream out, WebSearchResults results) throws IOException {
+        WebSearchInformationResult information = results.searchInformation();
+        out.writeLong(information == null || information.totalResults() == null ? -1 : information.totalResults());
+        out.writeInt(results.results().size());
+        for (WebSearchOrganicResult result : results.results()) {
+            writeString(out, result.title());
+            writeString(out, result.url().toString());
+            writeString(out, result.snippet());
+            writeString(out, result.content());
+        }
+    }
+
+    private static WebSearchResults readResults(DataInputStream in) throws IOException {
+        long totalResults = in.readLong();
+        int count = in.readInt();
+        List<WebSearchOrganicResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String title = readString(in);
+            URI url = URI.create(readString(in));
+            String snippet = readString(in);
+            String content = readString(in);
+            results.add(WebSearchOrganicResult.from(title, url, snippet, content));
+        }
+        return WebSearchResults.from(WebSearchInformationResult.from(totalResults < 0 ? null : totalResults), results);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record Entry(WebSearchResults results, long expiresAt) {
+    }
+
+    public record Stats(long hits, long misses, long expirations, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.0f%% de hits), %d expirations, %d entrées",
+                    hits, misses, hitRate() * 100, expirations, size);
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package ma.emsi.lahjaily;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Serveur HTTP de chat multi-sessions (JDK HttpServer, un thread virtuel par requête).
+ * <ul>
+ *     <li>{@code POST /chat?session=<id>} : corps = question (texte), réponse = texte de l'assistant.
+ *     Sans paramètre {@code session}, une session est créée et son id renvoyé dans l'en-tête {@code X-Session-Id}.
+ *     Une question de plus de {@link #MAX_BODY_BYTES} octets est refusée (413).</li>
+ *     <li>{@code POST /chat/stream?session=<id>} : idem, mais la réponse est envoyée token par token
+ *     (transfert "chunked") dès que le modèle les produit.</li>
+ *     <li>{@code DELETE /chat?session=<id>} : oublie la conversation (messages supprimés du ChatMemoryStore).</li>
+ *     <li>{@code GET /health} : statistiques du serveur.</li>
+ *     <li>{@code GET /metrics} : latences par étape et compteurs au format texte Prometheus.</li>
+ *     <li>{@code GET /ready} : 200 quand l'index est chargé, 503 avant (les questions reçues entre-temps
+ *     sont traitées sans RAG, voir RagRuntime).</li>
+ * </ul>
+ * Le nombre d'appels simultanés à l'assistant est borné par un sémaphore ; au-delà de
+ * {@code queueTimeout} d'attente, la requête est refusée (503). Les questions d'une même session
+ * sont traitées l'une après l'autre pour garder sa mémoire cohérente. Une session sans question depuis
+ * {@code sessionIdleTimeout} expire : elle est oubliée comme avec {@code DELETE}.
+ * <p>
+ * Le serveur n'a pas d'authentification et chaque question consomme le quota de l'API du LLM :
+ * il n'écoute donc que sur l'interface locale par défaut ; pour l'exposer à un réseau de confiance,
+ * indiquer l'adresse d'écoute avec {@code -Drag.server.bind=...} (par exemple {@code 0.0.0.0}).
+ */
+public class ChatServer {
+
+    private static final Duration DEFAULT_SESSION_IDLE_TIMEOUT = Duration.ofMinutes(10);
+    private static final int SWEEP_INTERVAL = 64;
+    /**
+     * Taille maximale d'une question (corps de la requête) ; au-delà, la requête est refusée (413).
+     */
+    static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private final SessionAssistant assistant;
+    private final PipelineMetrics metrics;
+    private final LatencyHistogram firstTokenLatency;
+    private final LatencyHistogram answerLatency;
+    private final Semaphore permits;
+    private final long queueTimeoutMillis;
+    private final BooleanSupplier ready;
+    private final long sessionIdleTimeoutNanos;
+    private final ChatMemoryStore memoryStore;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong answers = new AtomicLong();
+    private final AtomicLong streamedAnswers = new AtomicLong();
+    private final AtomicLong firstTokenNanos = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public ChatServer(SessionAssistant assistant, int maxConcurrent, Duration queueTimeout) {
+        this(assistant, maxConcurrent, queueTimeout, new PipelineMetrics());
+    }
+
+    /**
+     * @param metrics métriques du pipeline (décorateurs, listener du modèle) exportées sur {@code /metrics},
+     *                complétées par les latences mesurées par le serveur
+     */
+    public ChatServer(SessionAssistant assistant, int maxConcurrent, Duration queueTimeout, PipelineMetrics metrics) {
+        this(assistant, maxConcurrent, queueTimeout, metrics, () -> true);
+    }
+
+    /**
+     * @param ready état renvoyé par {@code /ready}, par exemple la fin du chargement de l'index
+     */
+    public ChatServer(SessionAssistant assistant, int maxConcurrent, Duration queueTimeout, PipelineMetrics metrics,
+                      BooleanSupplier ready) {
+        this(assistant, maxConcurrent, queueTimeout, metrics, ready, DEFAULT_SESSION_IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param sessionIdleTimeout inactivité au-delà de laquelle une session expire et sa conversation est supprimée
+     */
+    public ChatServer(SessionAssistant assistant, int maxConcurrent, Duration queueTimeout, PipelineMetrics metrics,
+                      BooleanSupplier ready, Duration sessionIdleTimeout) {
+        this(assistant, maxConcurrent, queueTimeout, metrics, ready, sessionIdleTimeout, null);
+    }
+
+    /**
+     * @param memoryStore magasin des ChatMemory de l'assistant : une session oubliée y est aussi supprimée,
+     *                    même si sa ChatMemory n'est plus chargée (null : seule la ChatMemory chargée est vidée)
+     */
+    public ChatServer(SessionAssistant assistant, int maxConcurrent, Duration queueTimeout, PipelineMetrics metrics,
+                      BooleanSupplier ready, Duration sessionIdleTimeout, ChatMemoryStore memoryStore) {
+        this.assistant = assistant;
+        this.metrics = metrics;
+        this.firstTokenLatency = metrics.timer("premier_token");
+        this.answerLatency = metrics.timer("reponse_complete");
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.queueTimeoutMillis = queueTimeout.toMillis();
+        this.ready = ready;
+        this.sessionIdleTimeoutNanos = sessionIdleTimeout.toNanos();
+        this.memoryStore = memoryStore;
+    }
+
+    /**
+     * Démarre le serveur sur l'interface locale uniquement.
+     *
+     * @param port port d'écoute (0 : port libre choisi par le système)
+     */
+    public void start(int port) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param bindAddress interface d'écoute
+     * @param port        port d'écoute (0 : port libre choisi par le système)
+     */
+    public void start(InetAddress bindAddress, int port) throws IOException {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.setExecutor(executor);
+        server.createContext("/chat", exchange -> handleChat(exchange, false));
+        server.createContext("/chat/stream", exchange -> handleChat(exchange, true));
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/ready", this::handleReady);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.close();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleChat(HttpExchange exchange, boolean streaming) throws IOException {
+        try (exchange) {
+            String sessionId = queryParameter(exchange.getRequestURI(), "session");
+            switch (exchange.getRequestMethod()) {
+                case "POST" -> {
+                    if (sessionId == null) {
+                        sessionId = UUID.randomUUID().toString();
+                    }
+                    exchange.getResponseHeaders().set("X-Session-Id", sessionId);
+                    // Lecture bornée : un corps trop gros n'est pas chargé en mémoire
+                    byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+                    if (body.length > MAX_BODY_BYTES) {
+                        send(exchange, 413, "Question trop longue (au plus " + MAX_BODY_BYTES + " octets)");
+                        return;
+                    }
+                    chat(exchange, sessionId, new String(body, StandardCharsets.UTF_8), streaming);
+                }
+                case "DELETE" -> {
+                    if (sessionId != null) {
+                        forgetSession(sessionId);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                }
+                default -> send(exchange, 405, "Méthode non supportée");
+            }
+        }
+    }
+
+    private void chat(HttpExchange exchange, String sessionId, String question, boolean streaming) throws IOException {
+        requests.incrementAndGet();
+        if (question.isBlank()) {
+            send(exchange, 400, "Question vide");
+            return;
+        }
+        try {
+            if (!permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejected.incrementAndGet();
+                send(exchange, 503, "Serveur saturé, réessayez plus tard");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long start = System.nanoTime();
+        if (requests.get() % SWEEP_INTERVAL == 0) {
+            forgetIdleSessions();
+        }
+        // compute : la date d'accès est mise à jour atomiquement vis-à-vis de forgetIdleSessions
+        ReentrantLock sessionLock = sessions.compute(sessionId, (id, session) -> {
+            Session current = session == null ? new Session() : session;
+            current.lastAccess = start;
+            return current;
+        }).lock;
+        sessionLock.lock();
+        try {
+            if (streaming) {
+                stream(exchange, assistant.chatStream(sessionId, question), start);
+            } else {
+                String answer = assistant.chat(sessionId, question);
+                long elapsed = System.nanoTime() - start;
+                totalNanos.addAndGet(elapsed);
+                answerLatency.record(elapsed);
+                answers.incrementAndGet();
+                send(exchange, 200, answer);
+            }
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            send(exchange, 502, "Erreur de l'assistant : " + e.getMessage());
+        } finally {
+            sessionLock.unlock();
+            permits.release();
+        }
+    }
+
+    /**
+     * Oublie les sessions sans question depuis plus de {@code sessionIdleTimeout} et dont aucune question
+     * n'est en cours : sans cela, chaque requête sans paramètre {@code session} laisserait une entrée
+     * dans la table des sessions, dans celle des ChatMemory de l'assistant et dans le ChatMemoryStore.
+     */
+    void forgetIdleSessions() {
+        long now = System.nanoTime();
+        for (String sessionId : sessions.keySet()) {
+            boolean[] expired = new boolean[1];
+            sessions.computeIfPresent(sessionId, (id, session) -> {
+                expired[0] = now - session.lastAccess >= sessionIdleTimeoutNanos && !session.lock.isLocked()
+                        && !session.lock.hasQueuedThreads();
+                return expired[0] ? null : session;
+            });
+            if (expired[0]) {
+                forgetMessages(sessionId);
+            }
+        }
+    }
+
+    /**
+     * Supprime la conversation : la table des sessions, la ChatMemory de l'assistant et ses messages.
+     * Une question en cours sur la session se termine d'abord.
+     */
+    private void forgetSession(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            forgetMessages(sessionId);
+            return;
+        }
+        session.lock.lock();
+        try {
+            forgetMessages(sessionId);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    private void forgetMessages(String sessionId) {
+        // evictChatMemory ne fait que retirer l'objet ChatMemory : les messages restent dans le magasin
+        ChatMemory chatMemory = assistant.getChatMemory(sessionId);
+        if (chatMemory != null) {
+            chatMemory.clear();
+        }
+        assistant.evictChatMemory(sessionId);
+        if (memoryStore != null) {
+            memoryStore.deleteMessages(sessionId);
+        }
+    }
+
+    /**
+     * Envoie chaque token dès qu'il arrive. La récupération RAG a déjà eu lieu dans {@code chatStream} :
+     * une erreur à ce stade donne encore un 502 ; ensuite (démarrage du flux compris), les en-têtes
+     * sont envoyés et elle est écrite dans le flux.
+     */
+    private void stream(HttpExchange exchange, TokenStream tokenStream, long start) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+        AtomicLong firstToken = new AtomicLong();
+        try {
+            tokenStream
+                    .onPartialResponse(token -> {
+                        firstToken.compareAndSet(0, System.nanoTime());
+                        try {
+                            out.write(token.getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .onCompleteResponse(done::complete)
+                    .onError(done::completeExceptionally)
+                    .start();
+        } catch (RuntimeException e) {
+            // Les en-têtes 200 sont déjà partis : l'erreur est écrite dans le flux, comme pour onError
+            done.completeExceptionally(e);
+        }
+        try {
+            done.join();
+            long end = System.nanoTime();
+            long firstTokenElapsed = (firstToken.get() == 0 ? end : firstToken.get()) - start;
+            firstTokenNanos.addAndGet(firstTokenElapsed);
+            firstTokenLatency.record(firstTokenElapsed);
+            totalNanos.addAndGet(end - start);
+            answerLatency.record(end - start);
+            answers.incrementAndGet();
+            streamedAnswers.incrementAndGet();
+        } catch (CompletionException e) {
+            failures.incrementAndGet();
+            out.write(("\n[Erreur de l'assistant : " + e.getCause().getMessage() + "]").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            send(exchange, 200, stats().toString());
+        }
+    }
+
+    private void handleReady(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (ready.getAsBoolean()) {
+                send(exchange, 200, "prêt");
+            } else {
+                send(exchange, 503, "index en cours de chargement");
+            }
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Stats stats = stats();
+            String text = metrics.toPrometheus()
+                    + "# TYPE rag_requetes_total counter\nrag_requetes_total " + stats.requests() + "\n"
+                    + "# TYPE rag_refus_total counter\nrag_refus_total " + stats.rejected() + "\n"
+                    + "# TYPE rag_echecs_total counter\nrag_echecs_total " + stats.failures() + "\n"
+                    + "# TYPE rag_sessions gauge\nrag_sessions " + stats.sessions() + "\n"
+                    + "# TYPE rag_places_libres gauge\nrag_places_libres " + stats.availablePermits() + "\n";
+            send(exchange, 200, text);
+        }
+    }
+
+    public Stats stats() {
+        long answered = answers.get();
+        long streamed = streamedAnswers.get();
+        return new Stats(requests.get(), rejected.get(), failures.get(), sessions.size(), permits.availablePermits(),
+                streamed == 0 ? 0 : firstTokenNanos.get() / 1e6 / streamed,
+                answered == 0 ? 0 : totalNanos.get() / 1e6 / answered);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String queryParameter(URI uri, String name) {
+        String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    public record Stats(long requests, long rejected, long failures, int sessions, int availablePermits,
+                        double averageFirstTokenMillis, double averageTotalMillis) {
+
+        @Override
+        public String toString() {
+            return String.format("%d requêtes, %d refusées (saturation), %d en erreur, %d sessions, %d places libres, "
+                            + "premier token %.0f ms, réponse complète %.0f ms (moyennes)",
+                    requests, rejected, failures, sessions, availablePermits, averageFirstTokenMillis, averageTotalMillis);
+        }
+    }
+
+    private static final class Session {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long lastAccess;
+    }
+
+    // Helper pour charger les ressources
+    private static Path getPath(String fileName) {
+        try {
+            URI fileUri = ChatServer.class.getClassLoader().getResource(fileName).toURI();
+            return Paths.get(fileUri);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * RAG naïf (rag.pdf) servi en HTTP. Réglages : -Drag.server.port (8080),
+     * -Drag.server.maxConcurrent (64), -Drag.server.queueTimeout.ms (5000),
+     * -Drag.server.bind (interface locale), -Drag.server.sessionTimeout.min (60, expiration des sessions inactives),
+     * -Drag.cache.capacity (1000), -Drag.cache.similarity (0.95).
+     */
+    public static void main(String[] args) throws IOException {
+        // Chargements lents (modèle ONNX, Tika, index) en arrière-plan : le serveur écoute tout de suite
+        RagRuntime runtime = RagRuntime.start();
+
+        // Latences par étape et tokens, exportés sur /metrics
+        PipelineMetrics metrics = new PipelineMetrics();
+        ChatModel model = GoogleAiGeminiChatModel.builder()
+                .apiKey(System.getenv("GEMINI_KEY"))
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .listeners(List.of(metrics.chatModelListener()))
+                .build();
+        StreamingChatModel streamingModel = GoogleAiGeminiStreamingChatModel.builder()
+                .apiKey(System.getenv("GEMINI_KEY"))
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .listeners(List.of(metrics.chatModelListener()))
+                .build();
+
+        // Magasin et modèle d'embedding partagés (en lecture) par toutes les sessions
+        EmbeddingModel embeddingModel = runtime.embeddingModel();
+        CompletableFuture<PersistentEmbeddingStore> embeddingStore = runtime.ingest(getPath("rag.pdf"));
+
+        // Les questions simultanées de plusieurs sessions sont embeddées en micro-lots
+        BatchingEmbeddingModel batchingEmbeddingModel = new BatchingEmbeddingModel(embeddingModel);
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(batchingEmbeddingModel);
+        // Cache sémantique des réponses, partagé par les sessions : les questions fréquentes sur rag.pdf
+        // ne refont pas d'aller-retour Gemini (succès et échecs exportés sur /metrics)
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(queryEmbeddingModel,
+                Integer.getInteger("rag.cache.capacity", 1_000),
+                Double.parseDouble(System.getProperty("rag.cache.similarity", "0.95")),
+                () -> RagRuntime.readyNow(embeddingStore) != null ? embeddingStore.join().generation() : -1, metrics);
+        // Recherche hybride (vectorielle + BM25) : l'index lexical est construit une fois, partagé en lecture
+        CompletableFuture<RetrievalAugmentor> ragAugmentor = embeddingStore.thenApply(store -> {
+            ContentRetriever contentRetriever = new HybridContentRetriever(
+                    metrics.timed(PipelineMetrics.VECTOR_SEARCH, store),
+                    metrics.timed(PipelineMetrics.QUERY_EMBEDDING, queryEmbeddingModel),
+                    Bm25Index.of(store), 2, 0.5);
+            return DefaultRetrievalAugmentor.builder()
+                    .contentRetriever(contentRetriever)
+                    .contentInjector(answerCache.injector(
+                            metrics.timed(PipelineMetrics.PROMPT_ASSEMBLY, DefaultContentInjector.builder().build())))
+                    .build();
+        });
+        // Jusqu'au chargement de l'index (signalé par /ready), réponses sans RAG ou attente (-Drag.startup.wait)
+        RetrievalAugmentor retrievalAugmentor = runtime.augmentorWhenReady("rag.pdf", ragAugmentor);
+
+        // Une ChatMemory par session : historique compressé, contexte RAG retiré des anciens tours,
+        // anciens échanges résumés au-delà de ~2000 tokens, sessions inactives depuis 10 min écrites sur disque
+        CompactChatMemoryStore memoryStore = new CompactChatMemoryStore(2_000, 4,
+                CompactChatMemoryStore.Summarizer.extractive(), Duration.ofMinutes(10),
+                Paths.get(System.getProperty("rag.index.dir", ".rag-index"), "sessions"));
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(answerCache.chatModel(model))
+                .streamingChatModel(answerCache.streaming(streamingModel))
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.builder()
+                        .id(sessionId)
+                        .maxMessages(100)
+                        .chatMemoryStore(memoryStore)
+                        .build())
+                .retrievalAugmentor(retrievalAugmentor)
+                .build();
+
+        ChatServer chatServer = new ChatServer(assistant,
+                Integer.getInteger("rag.server.maxConcurrent", 64),
+                Duration.ofMillis(Long.getLong("rag.server.queueTimeout.ms", 5000)), metrics,
+                () -> RagRuntime.readyNow(ragAugmentor) != null,
+                Duration.ofMinutes(Long.getLong("rag.server.sessionTimeout.min", 60)), memoryStore);
+        String bind = System.getProperty("rag.server.bind");
+        chatServer.start(bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind),
+                Integer.getInteger("rag.server.port", 8080));
+        runtime.promptReady();
+        System.out.println("Serveur de chat démarré sur http://localhost:" + chatServer.port() + "/chat");
+        System.out.println("Exemple : curl -i -X POST --data \"Qu'est-ce que le RAG ?\" http://localhost:"
+                + chatServer.port() + "/chat");
+        System.out.println("En streaming : curl -N -X POST --data \"Qu'est-ce que le RAG ?\" http://localhost:"
+                + chatServer.port() + "/chat/stream");
+        System.out.println("Métriques : http://localhost:" + chatServer.port() + "/metrics");
+        System.out.println("Disponibilité de l'index : http://localhost:" + chatServer.port() + "/ready");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            chatServer.stop();
+            batchingEmbeddingModel.close();
+            System.out.println("Serveur : " + chatServer.stats());
+            System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+            System.out.println("Mémoire des sessions : " + memoryStore.stats());
+            System.out.println("Cache des réponses : " + answerCache.stats());
+            System.out.println(runtime.report());
+        }));
+    }
+}
@@ -0,0 +1,402 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * ChatMemoryStore compact pour de nombreuses sessions et de longues conversations.
+ * <ul>
+ *     <li>Chaque conversation est stockée sérialisée (JSON) et compressée : pas d'objets ChatMessage
+ *     qui restent sur le heap entre deux tours.</li>
+ *     <li>Les sessions inactives depuis {@code idleTimeout} sont écrites sur disque et retirées de la mémoire ;
+ *     elles sont rechargées à leur prochain tour.</li>
+ *     <li>Le contexte RAG injecté ("Answer using the following information: ...") est retiré de tous
+ *     les messages utilisateur sauf le dernier : il ne sert qu'au tour où il a été récupéré.</li>
+ *     <li>Au-delà de {@code tokenBudget} tokens (estimés), les plus anciens échanges sont remplacés par un
+ *     résumé glissant, ajouté au message système. Les {@code keepRecentMessages} derniers messages sont gardés tels quels.</li>
+ * </ul>
+ * À utiliser derrière une MessageWindowChatMemory dont la fenêtre est plus grande que ce que garde
+ * le budget (c'est alors le budget de tokens qui borne la conversation, pas le nombre de messages).
+ */
+public class CompactChatMemoryStore implements ChatMemoryStore {
+
+    /**
+     * Séparateur ajouté par le DefaultContentInjector entre la question et le contenu récupéré.
+     */
+    static final String RAG_CONTEXT_MARKER = "\n\nAnswer using the following information:\n";
+    private static final String SUMMARY_MARKER = "\n\n[Résumé de la conversation précédente]\n";
+    private static final int SWEEP_INTERVAL = 64;
+
+    /**
+     * Résume les messages retirés de la conversation, en tenant compte du résumé précédent.
+     */
+    @FunctionalInterface
+    public interface Summarizer {
+
+        String summarize(String previousSummary, List<ChatMessage> evicted);
+
+        /**
+         * Résumé extractif, sans appel au LLM : début de chaque question et de chaque réponse.
+         */
+        static Summarizer extractive() {
+            return (previousSummary, evicted) -> {
+                StringBuilder summary = new StringBuilder(previousSummary);
+                for (ChatMessage message : evicted) {
+                    if (message instanceof UserMessage user && user.hasSingleText()) {
+                        summary.append("- Question : ").append(abbreviate(user.singleText(), 150)).append('\n');
+                    } else if (message instanceof AiMessage ai && ai.text() != null) {
+                        summary.append("  Réponse : ").append(abbreviate(ai.text(), 200)).append('\n');
+                    }
+                }
+                return summary.toString();
+            };
+        }
+
+        /**
+         * Résumé rédigé par un ChatModel (un appel par compaction).
+         */
+        static Summarizer withChatModel(ChatModel chatModel) {
+            return (previousSummary, evicted) -> {
+                StringBuilder prompt = new StringBuilder("Résume en quelques phrases, en français, la conversation "
+                        + "suivante entre un utilisateur et un assistant. Garde les faits, noms et chiffres utiles pour la suite.\n");
+                if (!previousSummary.isEmpty()) {
+                    prompt.append("\nRésumé précédent :\n").append(previousSummary).append('\n');
+                }
+                prompt.append("\nNouveaux échanges :\n");
+                for (ChatMessage message : evicted) {
+                    if (message instanceof UserMessage user && user.hasSingleText()) {
+                        prompt.append("Utilisateur : ").append(user.singleText()).append('\n');
+                    } else if (message instanceof AiMessage ai && ai.text() != null) {
+                        prompt.append("Assistant : ").append(ai.text()).append('\n');
+                    }
+                }
+                return chatModel.chat(prompt.toString()).strip() + '\n';
+            };
+        }
+    }
+
+    private final int tokenBudget;
+    private final int keepRecentMessages;
+    private final Summarizer summarizer;
+    private final long idleTimeoutNanos;
+    private final Path spillDirectory;
+    private final Map<Object, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong updates = new AtomicLong();
+
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong strippedChars = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong reloaded = new AtomicLong();
+
+    /**
+     * Budget de 2000 tokens, 4 derniers messages gardés, résumé extractif, sans écriture sur disque.
+     */
+    public CompactChatMemoryStore() {
+        this(2_000, 4, Summarizer.extractive(), Duration.ofMinutes(10), null);
+    }
+
+    /**
+     * @param spillDirectory répertoire des sessions inactives (null : elles restent en mémoire, compressées)
+     */
+    public CompactChatMemoryStore(int tokenBudget, int keepRecentMessages, Summarizer summarizer,
+                                  Duration idleTimeout, Path spillDirectory) {
+        this.tokenBudget = tokenBudget;
+        this.keepRecentMessages = keepRecentMessages;
+        this.summarizer = summarizer;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        Session session = session(memoryId);
+        if (session == null) {
+            return new ArrayList<>();
+        }
+        session.lastAccess = System.nanoTime();
+        return ChatMessageDeserializer.messagesFromJson(decompress(session.data));
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        List<ChatMessage> compacted = compact(stripRagContext(messages));
+        byte[] data = compress(ChatMessageSerializer.messagesToJson(compacted));
+        sessions.compute(memoryId, (id, session) -> {
+            if (session == null) {
+                session = new Session();
+            }
+            session.data = data;
+            session.lastAccess = System.nanoTime();
+            return session;
+        });
+        if (updates.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            spillIdleSessions();
+        }
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        sessions.remove(memoryId);
+        if (spillDirectory != null) {
+            try {
+                Files.deleteIfExists(spillFile(memoryId));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Écrit sur disque (et retire de la mémoire) les sessions inactives depuis plus de {@code idleTimeout}.
+     */
+    public void spillIdleSessions() {
+        if (spillDirectory == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Object memoryId : sessions.keySet()) {
+            // compute : atomique vis-à-vis d'un updateMessages concurrent sur la même session
+            sessions.computeIfPresent(memoryId, (id, session) -> {
+                if (now - session.lastAccess < idleTimeoutNanos) {
+                    return session;
+                }
+                try {
+                    Files.createDirectories(spillDirectory);
+                    Files.write(spillFile(id), session.data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                spilled.incrementAndGet();
+                return null;
+            });
+        }
+    }
+
+    public Stats stats() {
+        long bytes = 0;
+        for (Session session : sessions.values()) {
+            bytes += session.data.length;
+        }
+        return new Stats(sessions.size(), bytes, compactions.get(), strippedChars.get(), spilled.get(), reloaded.get());
+    }
+
+    private Session session(Object memoryId) {
+        Session session = sessions.get(memoryId);
+        if (session != null || spillDirectory == null) {
+            return session;
+        }
+        Path file = spillFile(memoryId);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            Session loaded = new Session();
+            loaded.data = Files.readAllBytes(file);
+            Files.delete(file);
+            reloaded.incrementAndGet();
+            Session previous = sessions.putIfAbsent(memoryId, loaded);
+            return previous != null ? previous : loaded;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path spillFile(Object memoryId) {
+        return spillDirectory.resolve(SegmentEmbeddingCache.hash(memoryId.toString()) + ".mem");
+    }
+
+    // ==== Réduction de la conversation ====
+
+    /**
+     * Retire le contenu RAG injecté de tous les messages utilisateur sauf le dernier.
+     */
+    private List<ChatMessage> stripRagContext(List<ChatMessage> messages) {
+        int lastUser = -1;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage) {
+                lastUser = i;
+                break;
+            }
+        }
+        List<ChatMessage> result = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            if (i != lastUser && message instanceof UserMessage user && user.hasSingleText()) {
+                String text = user.singleText();
+                int marker = text.indexOf(RAG_CONTEXT_MARKER);
+                if (marker >= 0) {
+                    strippedChars.addAndGet(text.length() - marker);
+                    message = user.name() == null ? UserMessage.from(text.substring(0, marker))
+                            : UserMessage.from(user.name(), text.substring(0, marker));
+                }
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    /**
+     * Au-delà du budget, les plus anciens messages (hors message système et derniers messages)
+     * sont remplacés par le résumé glissant. L'historique gardé commence toujours par une question.
+     */
+    private List<ChatMessage> compact(List<ChatMessage> messages) {
+        if (estimateTokens(messages) <= tokenBudget) {
+            return messages;
+        }
+        SystemMessage system = null;
+        List<ChatMessage> history = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage systemMessage) {
+                system = systemMessage;
+            } else {
+                history.add(message);
+            }
+        }
+
+        List<ChatMessage> evicted = new ArrayList<>();
+        int keep = Math.min(keepRecentMessages, history.size());
+        while (history.size() > keep && estimateTokens(history) + estimateTokens(system) > tokenBudget) {
+            evicted.add(history.remove(0));
+        }
+        while (history.size() > 1 && !(history.get(0) instanceof UserMessage)) {
+            evicted.add(history.remove(0));
+        }
+        if (evicted.isEmpty()) {
+            return messages;
+        }
+        compactions.incrementAndGet();
+
+        String instructions = system == null ? "" : system.text();
+        String previousSummary = "";
+        int marker = instructions.indexOf(SUMMARY_MARKER);
+        if (marker >= 0) {
+            previousSummary = instructions.substring(marker + SUMMARY_MARKER.length());
+            instructions = instructions.substring(0, marker);
+        }
+        String summary = trimSummary(summarizer.summarize(previousSummary, evicted));
+
+        List<ChatMessage> result = new ArrayList<>(history.size() + 1);
+        result.add(SystemMessage.from(instructions + SUMMARY_MARKER + summary));
+        result.addAll(history);
+        return result;
+    }
+
+    /**
+     * Le résumé ne garde que ses dernières lignes dans un quart du budget.
+     */
+    private String trimSummary(String summary) {
+        int maxChars = tokenBudget; // ≈ tokenBudget / 4 tokens
+        if (summary.length() <= maxChars) {
+            return summary;
+        }
+        String tail = summary.substring(summary.length() - maxChars);
+        int newline = tail.indexOf('\n');
+        return newline >= 0 && newline < tail.length() - 1 ? tail.substring(newline + 1) : tail;
+    }
+
+    /**
+     * Estimation grossière : environ 4 caractères par token.
+     */
+    private static int estimateTokens(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokens(message);
+        }
+        return tokens;
+    }
+
+    private static int estimateTokens(ChatMessage message) {
+        if (message == null) {
+            return 0;
+        }
+        String text = switch (message) {
+            case UserMessage user -> user.hasSingleText() ? user.singleText() : user.contents().toString();
+            case AiMessage ai -> ai.text() == null ? "" : ai.text();
+            case SystemMessage system -> system.text();
+            default -> message.toString();
+        };
+        return 4 + text.length() / 4;
+    }
+
+    private static String abbreviate(String text, int maxLength) {
+        String line = text.strip().replaceAll("\\s+", " ");
+        return line.length() <= maxLength ? line : line.substring(0, maxLength) + "...";
+    }
+
+    // ==== Compression ====
+
+    private static byte[] compress(String json) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(json.getBytes(StandardCharsets.UTF_8));
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(json.length() / 3 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String decompress(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Conversation compressée tronquée");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Session {
+        private volatile byte[] data;
+        private volatile long lastAccess;
+    }
+
+    public record Stats(int sessionsInMemory, long compressedBytes, long compactions, long strippedChars,
+                        long spilled, long reloaded) {
+
+        @Override
+        public String toString() {
+            return String.format("%d sessions en mémoire (%d Ko compressés), %d compactions, "
+                            + "%d caractères de contexte RAG retirés, %d sessions écrites sur disque, %d rechargées",
+                    sessionsInMemory, compressedBytes / 1024, compactions, strippedChars, spilled, reloaded);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ContentRetriever avec une échéance : la recherche du retriever délégué s'exécute sur un thread
+ * virtuel et, si elle n'a pas répondu dans le délai (ou a échoué), la source est ignorée pour
+ * cette question au lieu de retarder la réponse.
+ * <p>
+ * Le DefaultRetrievalAugmentor interroge déjà les retrievers routés en parallèle puis attend
+ * le plus lent : avec un délai par source, la recherche web lente ne bloque plus la réponse
+ * construite à partir du PDF local.
+ * <p>
+ * Seule l'attente est abandonnée : une recherche hors délai n'est pas interrompue et se termine en
+ * arrière-plan. Derrière un CachingWebSearchEngine, son résultat est alors mis en cache et sert dès
+ * la question suivante, même pour une requête toujours plus lente que le délai. Tant qu'une recherche
+ * est en cours, la même question (même texte) l'attend au lieu d'en lancer une autre : une question
+ * lente répétée ne multiplie pas les appels en arrière-plan.
+ */
+public class DeadlineContentRetriever implements ContentRetriever {
+
+    private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final String name;
+    private final ContentRetriever delegate;
+    private final long deadlineNanos;
+
+    // Recherches en cours, par texte de la question
+    private final Map<String, CompletableFuture<List<Content>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong answeredNanos = new AtomicLong();
+
+    public DeadlineContentRetriever(String name, ContentRetriever delegate, Duration deadline) {
+        this.name = name;
+        this.delegate = delegate;
+        this.deadlineNanos = deadline.toNanos();
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        Future<List<Content>> future = searchFor(query);
+        try {
+            List<Content> contents = future.get(deadlineNanos, TimeUnit.NANOSECONDS);
+            answeredNanos.addAndGet(System.nanoTime() - start);
+            return contents;
+        } catch (TimeoutException e) {
+            // pas de cancel : la recherche continue et remplit le cache de la source
+            timeouts.incrementAndGet();
+            System.out.printf("LOG: Source [%s] hors délai (%d ms), ignorée pour cette question.%n",
+                    name, TimeUnit.NANOSECONDS.toMillis(deadlineNanos));
+            return List.of();
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            System.out.println("LOG: Source [" + name + "] en erreur, ignorée pour cette question : " + e.getCause());
+            return List.of();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        }
+    }
+
+    /**
+     * Recherche en cours pour le même texte, ou nouvelle recherche sur un thread virtuel.
+     */
+    private Future<List<Content>> searchFor(Query query) {
+        String text = query.text();
+        CompletableFuture<List<Content>> created = new CompletableFuture<>();
+        CompletableFuture<List<Content>> running = inFlight.putIfAbsent(text, created);
+        if (running != null) {
+            joined.incrementAndGet();
+            return running;
+        }
+        VIRTUAL_THREADS.execute(() -> {
+            try {
+                created.complete(delegate.retrieve(query));
+            } catch (Throwable t) {
+                created.completeExceptionally(t);
+            } finally {
+                inFlight.remove(text, created);
+            }
+        });
+        return created;
+    }
+
+    public Stats stats() {
+        return new Stats(name, calls.get(), joined.get(), timeouts.get(), failures.get(), answeredNanos.get());
+    }
+
+    /**
+     * Exécuteur sur threads virtuels, à passer au DefaultRetrievalAugmentor pour interroger les sources en parallèle.
+     */
+    public static ExecutorService virtualThreadExecutor() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * @param joined appels qui ont attendu une recherche déjà en cours pour la même question
+     */
+    public record Stats(String name, long calls, long joined, long timeouts, long failures, long answeredNanos) {
+
+        public double averageMillis() {
+            long answered = calls - timeouts - failures;
+            return answered == 0 ? 0 : answeredNanos / 1e6 / answered;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s : %d appels (%d sur une recherche déjà en cours), %d hors délai, %d en erreur, "
+                            + "%.1f ms en moyenne", name, calls, joined, timeouts, failures, averageMillis());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ingestion d'un document avec index persistant sur disque.
+ * <p>
+ * L'index est identifié par une clé (hash SHA-256 du contenu du document + paramètres du splitter
+ * + modèle d'embedding). Si le document n'a pas changé depuis le dernier lancement, l'index est
+ * rechargé directement depuis le disque, sans parser, splitter ni recalculer les embeddings.
+ * Chaque modèle d'embedding a son propre fichier d'index ({@code <document>.<modèle>.idx}).
+ * <p>
+ * Si le document a changé, la mise à jour est incrémentale : les segments sont identifiés par le hash
+ * de leur texte et seuls les segments nouveaux (absents du {@link SegmentEmbeddingCache}) sont envoyés
+ * au modèle d'embedding ; les segments qui ont disparu sont retirés de l'index.
+ * <p>
+ * Un PDF de plus de {@code rag.ingest.streaming.mb} Mo (32 par défaut) est indexé par le
+ * {@link StreamingPdfIngestor} : page par page, sans charger tout son texte en mémoire.
+ */
+public class DocumentIngestor {
+
+    public static final int MAX_SEGMENT_SIZE = 300;
+    public static final int MAX_OVERLAP_SIZE = 30;
+
+    // Dossier des index (configurable avec -Drag.index.dir=...)
+    private static final Path INDEX_DIR = Paths.get(System.getProperty("rag.index.dir", ".rag-index"));
+    // Taille à partir de laquelle un PDF est ingéré en streaming (-Drag.ingest.streaming.mb=...)
+    private static final long STREAMING_THRESHOLD_BYTES = Long.getLong("rag.ingest.streaming.mb", 32) * 1024 * 1024;
+    // Caches de vecteurs ouverts, par fichier
+    private static final Map<Path, SegmentEmbeddingCache> SEGMENT_CACHES = new ConcurrentHashMap<>();
+
+    private DocumentIngestor() {
+    }
+
+    /**
+     * Retourne un EmbeddingStore pour le document : rechargé depuis le disque si l'index est à jour,
+     * sinon mis à jour (parsing, découpage, embeddings du delta) puis sauvegardé.
+     */
+    public static PersistentEmbeddingStore ingest(Path documentPath, EmbeddingModel embeddingModel) {
+        long start = System.nanoTime();
+        String key = indexKey(documentPath, embeddingModel);
+        Path indexFile = indexFile(documentPath, embeddingModel);
+
+        if (key.equals(PersistentEmbeddingStore.readKey(indexFile))) {
+            PersistentEmbeddingStore store = PersistentEmbeddingStore.load(indexFile);
+            System.out.println("Index de '" + documentPath.getFileName() + "' chargé depuis le disque ("
+                    + store.size() + " segments, " + elapsedMillis(start) + " ms).");
+            return store;
+        }
+
+        if (isLargePdf(documentPath)) {
+            // Index reconstruit au fil des pages ; les segments inchangés sont repris du cache de vecteurs
+            PersistentEmbeddingStore store = new PersistentEmbeddingStore();
+            StreamingPdfIngestor.Stats stats = new StreamingPdfIngestor(embeddingModel).ingest(documentPath, store);
+            store.save(indexFile, key);
+            System.out.println("Index de '" + documentPath.getFileName() + "' construit en streaming (" + stats + ").");
+            return store;
+        }
+
+        Document document = FileSystemDocumentLoader.loadDocument(documentPath, RagRuntime.documentParser());
+        DocumentSplitter splitter = DocumentSplitters.recursive(MAX_SEGMENT_SIZE, MAX_OVERLAP_SIZE);
+        List<TextSegment> segments = splitter.split(document);
+
+        // Mise à jour incrémentale : on repart de l'ancien index du même modèle (s'il existe) et on n'embed
+        // que le delta ; l'index d'un autre modèle est dans un autre fichier et n'est jamais relu
+        PersistentEmbeddingStore store = Files.isRegularFile(indexFile)
+                ? PersistentEmbeddingStore.load(indexFile)
+                : new PersistentEmbeddingStore();
+        SegmentEmbeddingCache cache = segmentCache(embeddingModel);
+        Delta delta = update(store, segments, embeddingModel, cache);
+        store.save(indexFile, key);
+        cache.save();
+        System.out.println("Index de '" + documentPath.getFileName() + "' mis à jour ("
+                + segments.size() + " segments : " + delta.reused() + " réutilisés, "
+                + delta.embedded() + " recalculés, " + delta.removed() + " supprimés, "
+                + elapsedMillis(start) + " ms).");
+        return store;
+    }
+
+    /**
+     * Applique au magasin la différence entre son contenu actuel et les nouveaux segments.
+     * <p>
+     * Chaque segment est identifié par le hash de son texte : les segments disparus sont supprimés,
+     * les segments nouveaux ou modifiés sont ajoutés. Seuls les textes absents du cache
+     * sont envoyés au modèle d'embedding.
+     */
+    static Delta update(PersistentEmbeddingStore store, List<TextSegment> segments,
+                        EmbeddingModel embeddingModel, SegmentEmbeddingCache cache) {
+        // Contenu actuel du magasin ; ses vecteurs alimentent aussi le cache
+        Map<String, TextSegment> previous = new HashMap<>();
+        store.forEach((id, embedding, segment) -> {
+            previous.put(id, segment);
+            if (segment != null && !cache.contains(SegmentEmbeddingCache.hash(segment.text()))) {
+                cache.put(SegmentEmbeddingCache.hash(segment.text()), embedding);
+            }
+        });
+
+        List<String> ids = segmentIds(segments);
+        Set<String> toRemove = new HashSet<>(previous.keySet());
+        List<String> addIds = new ArrayList<>();
+        List<TextSegment> addSegments = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            String id = ids.get(i);
+            TextSegment old = previous.get(id);
+            if (old != null && old.metadata().equals(segments.get(i).metadata())) {
+                toRemove.remove(id); // segment inchangé, on le garde tel quel
+            } else {
+                addIds.add(id);
+                addSegments.add(segments.get(i));
+            }
+        }
+
+        // Embeddings : depuis le cache si possible, sinon un seul appel embedAll pour les manquants
+        Embedding[] addEmbeddings = new Embedding[addSegments.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < addSegments.size(); i++) {
+            addEmbeddings[i] = cache.get(SegmentEmbeddingCache.hash(addSegments.get(i).text()));
+            if (addEmbeddings[i] == null) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<TextSegment> toEmbed = missing.stream().map(addSegments::get).toList();
+            Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(toEmbed);
+            for (int j = 0; j < missing.size(); j++) {
+                Embedding embedding = embeddingsResponse.content().get(j);
+                addEmbeddings[missing.get(j)] = embedding;
+                cache.put(SegmentEmbeddingCache.hash(toEmbed.get(j).text()), embedding);
+            }
+        }
+
+        // Un segment dont seules les métadonnées ont changé est supprimé puis ré-ajouté sous le même id
+        toRemove.addAll(addIds.stream().filter(previous::containsKey).toList());
+        store.removeAll(toRemove);
+        store.addAll(addIds, Arrays.asList(addEmbeddings), addSegments);
+
+        Set<String> readded = new HashSet<>(addIds);
+        int removed = (int) toRemove.stream().filter(id -> !readded.contains(id)).count();
+        return new Delta(segments.size() - missing.size(), missing.size(), removed);
+    }
+
+    /**
+     * Identifiants adressés par contenu : hash du texte, suffixé par le numéro d'occurrence
+     * quand le même texte apparaît plusieurs fois dans le document.
+     */
+    static List<String> segmentIds(List<TextSegment> segments) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        List<String> ids = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            String hash = SegmentEmbeddingCache.hash(segment.text());
+            int occurrence = occurrences.merge(hash, 1, Integer::sum);
+            ids.add(occurrence == 1 ? hash : hash + "#" + occurrence);
+        }
+        return ids;
+    }
+
+    /**
+     * Le cache de vecteurs dépend du modèle d'embedding : un fichier par modèle, partagé entre documents.
+     * Une seule instance par fichier dans la JVM : des ingestions concurrentes (RagRuntime) ajoutent leurs
+     * entrées au même cache, et aucune sauvegarde n'écrase celles d'une autre.
+     */
+    static SegmentEmbeddingCache segmentCache(EmbeddingModel embeddingModel) {
+        return SEGMENT_CACHES.computeIfAbsent(
+                INDEX_DIR.resolve(modelClass(embeddingModel).getSimpleName() + ".cache"), SegmentEmbeddingCache::open);
+    }
+
+    /**
+     * Classe du modèle qui calcule réellement les vecteurs : le modèle chargé en arrière-plan par
+     * {@link RagRuntime} partage les index et le cache du modèle qu'il enveloppe.
+     */
+    static Class<?> modelClass(EmbeddingModel embeddingModel) {
+        return embeddingModel instanceof RagRuntime.LazyEmbeddingModel lazy
+                ? lazy.modelClass()
+                : embeddingModel.getClass();
+    }
+
+    private static boolean isLargePdf(Path documentPath) {
+        try {
+            return documentPath.getFileName().toString().toLowerCase().endsWith(".pdf")
+                    && Files.size(documentPath) >= STREAMING_THRESHOLD_BYTES;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Fichier d'index du document pour ce modèle : les vecteurs de deux modèles ne sont jamais mélangés,
+     * ni dans l'index ni dans le cache de vecteurs qu'il alimente lors d'une mise à jour.
+     */
+    static Path indexFile(Path documentPath, EmbeddingModel embeddingModel) {
+        return INDEX_DIR.resolve(documentPath.getFileName() + "." + modelClass(embeddingModel).getSimpleName() + ".idx");
+    }
+
+    /**
+     * Clé de l'index : contenu du document + réglages du splitter + modèle d'embedding.
+     * Changer l'un des trois invalide l'index.
+     */
+    static String indexKey(Path documentPath, EmbeddingModel embeddingModel) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = Files.newInputStream(documentPath)) {
+                byte[] buffer = new byte[1 << 16];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            String settings = "recursive(" + MAX_SEGMENT_SIZE + "," + MAX_OVERLAP_SIZE + ")|"
+                    + modelClass(embeddingModel).getName();
+            digest.update(settings.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    record Delta(int reused, int embedded, int removed) {
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
@@ -0,0 +1,167 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryRouter sans appel au LLM : chaque route (un retriever, ou "pas de RAG") est représentée par
+ * un centroïde, l'embedding de sa description, éventuellement moyenné avec des exemples de questions.
+ * La question est envoyée vers la route dont le centroïde est le plus proche (cosinus).
+ * <p>
+ * Si l'écart entre les deux meilleures routes est inférieur à {@code minMargin}, la décision est
+ * jugée ambiguë et déléguée au routeur de secours (LanguageModelQueryRouter, CustomQueryRouter...).
+ * Avec un CachingEmbeddingModel partagé avec les retrievers, l'embedding de la question est
+ * calculé une seule fois : le routage lui-même ne coûte que quelques produits scalaires.
+ */
+public class EmbeddingQueryRouter implements QueryRouter {
+
+    private static final double DEFAULT_MIN_MARGIN = 0.05;
+
+    private final EmbeddingModel embeddingModel;
+    private final QueryRouter fallback;
+    private final double minMargin;
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong embeddingDecisions = new AtomicLong();
+    private final AtomicLong fallbackDecisions = new AtomicLong();
+    private final AtomicLong embeddingNanos = new AtomicLong();
+
+    public EmbeddingQueryRouter(EmbeddingModel embeddingModel, Map<ContentRetriever, String> retrieverMap,
+                                QueryRouter fallback) {
+        this(embeddingModel, retrieverMap, fallback, DEFAULT_MIN_MARGIN);
+    }
+
+    /**
+     * @param retrieverMap description de chaque retriever (la même Map que pour LanguageModelQueryRouter)
+     * @param fallback     routeur utilisé quand la décision est ambiguë (null : on garde la meilleure route)
+     * @param minMargin    écart de cosinus minimal entre les deux meilleures routes
+     */
+    public EmbeddingQueryRouter(EmbeddingModel embeddingModel, Map<ContentRetriever, String> retrieverMap,
+                                QueryRouter fallback, double minMargin) {
+        this.embeddingModel = embeddingModel;
+        this.fallback = fallback;
+        this.minMargin = minMargin;
+        retrieverMap.forEach((retriever, description) ->
+                routes.add(new Route(description, List.of(retriever), embed(description))));
+    }
+
+    /**
+     * Ajoute une route "pas de RAG" : les questions qui en sont proches ne déclenchent aucune recherche.
+     */
+    public EmbeddingQueryRouter noRetrievalRoute(String description, String... sampleQueries) {
+        Route route = new Route(description, List.of(), embed(description));
+        for (String sampleQuery : sampleQueries) {
+            route.learn(embed(sampleQuery));
+        }
+        routes.add(route);
+        return this;
+    }
+
+    /**
+     * Rapproche le centroïde de la route du retriever des exemples de questions donnés.
+     */
+    public EmbeddingQueryRouter sampleQueries(ContentRetriever retriever, String... sampleQueries) {
+        Route route = routes.stream()
+                .filter(candidate -> candidate.retrievers.contains(retriever))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Retriever absent de la Map de routage"));
+        for (String sampleQuery : sampleQueries) {
+            route.learn(embed(sampleQuery));
+        }
+        return this;
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        float[] vector = embed(query.text());
+        long start = System.nanoTime();
+        Route best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        double secondScore = Double.NEGATIVE_INFINITY;
+        for (Route route : routes) {
+            double score = route.score(vector);
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = route;
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        embeddingNanos.addAndGet(System.nanoTime() - start);
+
+        if (best == null) {
+            return Collections.emptyList();
+        }
+        if (fallback != null && bestScore - secondScore < minMargin) {
+            fallbackDecisions.incrementAndGet();
+            System.out.printf("LOG: Routage ambigu (écart %.3f), décision déléguée au LLM.%n", bestScore - secondScore);
+            return fallback.route(query);
+        }
+        embeddingDecisions.incrementAndGet();
+        System.out.printf("LOG: Routage [%s] (cosinus %.3f, écart %.3f).%n",
+                best.retrievers.isEmpty() ? "Pas de RAG" : best.description, bestScore, bestScore - secondScore);
+        return best.retrievers;
+    }
+
+    public Stats stats() {
+        return new Stats(embeddingDecisions.get(), fallbackDecisions.get(), embeddingNanos.get());
+    }
+
+    private float[] embed(String text) {
+        return VectorMath.normalized(embeddingModel.embed(text).content().vector());
+    }
+
+    /**
+     * Une route et son centroïde : moyenne (normalisée) de la description et des exemples appris.
+     */
+    private static final class Route {
+        private final String description;
+        private final Collection<ContentRetriever> retrievers;
+        private final float[] sum;
+        private volatile float[] centroid;
+
+        Route(String description, Collection<ContentRetriever> retrievers, float[] descriptionEmbedding) {
+            this.description = description;
+            this.retrievers = retrievers;
+            this.sum = descriptionEmbedding.clone();
+            this.centroid = descriptionEmbedding;
+        }
+
+        synchronized void learn(float[] sampleEmbedding) {
+            for (int d = 0; d < sum.length; d++) {
+                sum[d] += sampleEmbedding[d];
+            }
+            centroid = VectorMath.normalized(sum);
+        }
+
+        double score(float[] query) {
+            return VectorMath.dot(query, centroid);
+        }
+    }
+
+    public record Stats(long embeddingDecisions, long fallbackDecisions, long routingNanos) {
+
+        public double fallbackRate() {
+            long total = embeddingDecisions + fallbackDecisions;
+            return total == 0 ? 0 : (double) fallbackDecisions / total;
+        }
+
+        @Override
+        public String toString() {
+            long total = embeddingDecisions + fallbackDecisions;
+            return String.format("%d décisions par embedding, %d déléguées au LLM (%.0f%%), %.1f µs / décision",
+                    embeddingDecisions, fallbackDecisions, fallbackRate() * 100,
+                    total == 0 ? 0 : routingNanos / 1000.0 / total);
+        }
+    }
+}
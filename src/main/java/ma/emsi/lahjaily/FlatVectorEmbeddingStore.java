@@ -0,0 +1,285 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore compact pour un grand nombre de segments.
+ * <ul>
+ *     <li>Les vecteurs sont normalisés à l'insertion et rangés bout à bout dans quelques grands
+ *     tableaux float[] (pages) : pas d'objet Embedding par segment, et le cosinus devient un
+ *     produit scalaire calculé par {@link VectorMath} (SIMD si disponible).</li>
+ *     <li>Les ids, textes et métadonnées sont encodés dans une arène d'octets séparée
+ *     ({@link SegmentArena}) ; les objets TextSegment ne sont recréés que pour les résultats retournés.</li>
+ * </ul>
+ * Les suppressions sont des marques (les lignes supprimées sont ignorées par la recherche).
+ */
+public class FlatVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int VECTORS_PER_PAGE = 8192;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final SegmentArena rows = new SegmentArena();
+
+    private int dimension;
+    private int size;
+    private int deletedCount;
+    private float[][] vectorPages = new float[0][];
+    private final BitSet deleted = new BitSet();
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> embedded) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = embeddings.get(i).vector();
+                if (dimension == 0) {
+                    dimension = vector.length;
+                } else if (vector.length != dimension) {
+                    throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + vector.length);
+                }
+                ensureCapacity(size + 1);
+                float[] normalized = VectorMath.normalized(vector);
+                System.arraycopy(normalized, 0, vectorPages[size / VECTORS_PER_PAGE],
+                        (size % VECTORS_PER_PAGE) * dimension, dimension);
+                rows.add(newIds.get(i), embedded == null ? null : embedded.get(i));
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        Set<String> toRemove = new HashSet<>(ids);
+        lock.writeLock().lock();
+        try {
+            for (int row = deleted.nextClearBit(0); row < size; row = deleted.nextClearBit(row + 1)) {
+                if (toRemove.contains(rows.id(row))) {
+                    deleted.set(row);
+                    deletedCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int row = deleted.nextClearBit(0); row < size; row = deleted.nextClearBit(row + 1)) {
+                if (rows.hasSegment(row) && filter.test(rows.metadata(row))) {
+                    deleted.set(row);
+                    deletedCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            rows.clear();
+            size = 0;
+            deletedCount = 0;
+            deleted.clear();
+            vectorPages = new float[0][];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        // minScore (échelle RelevanceScore) converti en seuil de cosinus
+        float minCosine = (float) (2 * request.minScore() - 1);
+        Filter filter = request.filter();
+        TopK top = new TopK(request.maxResults());
+
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < size; row++) {
+                if (deletedCount > 0 && deleted.get(row)) {
+                    continue;
+                }
+                float cosine = VectorMath.dot(query, vectorPages[row / VECTORS_PER_PAGE],
+                        (row % VECTORS_PER_PAGE) * dimension, dimension);
+                if (cosine < minCosine || !top.accepts(cosine)) {
+                    continue;
+                }
+                if (filter != null && (!rows.hasSegment(row) || !filter.test(rows.metadata(row)))) {
+                    continue;
+                }
+                top.add(row, cosine);
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(top.size());
+            for (int i : top.sortedIndexes()) {
+                int row = top.rows[i];
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(top.scores[i]),
+                        rows.id(row), embedding(row), rows.segment(row)));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==== Accès aux lignes ====
+
+    private Embedding embedding(int row) {
+        int offset = (row % VECTORS_PER_PAGE) * dimension;
+        return Embedding.from(Arrays.copyOfRange(vectorPages[row / VECTORS_PER_PAGE], offset, offset + dimension));
+    }
+
+    private void ensureCapacity(int capacity) {
+        int pages = (capacity + VECTORS_PER_PAGE - 1) / VECTORS_PER_PAGE;
+        if (pages > vectorPages.length) {
+            vectorPages = Arrays.copyOf(vectorPages, pages);
+            vectorPages[pages - 1] = new float[VECTORS_PER_PAGE * dimension];
+        }
+    }
+
+    /**
+     * Sélection des k meilleurs scores avec des tableaux primitifs (tas binaire du plus petit score).
+     */
+    static final class TopK {
+        final int[] rows;
+        final float[] scores;
+        private int count;
+
+        TopK(int k) {
+            rows = new int[k];
+            scores = new float[k];
+        }
+
+        boolean accepts(float score) {
+            return count < rows.length || (count > 0 && score > scores[0]);
+        }
+
+        void add(int row, float score) {
+            if (count < rows.length) {
+                rows[count] = row;
+                scores[count] = score;
+                siftUp(count++);
+            } else {
+                rows[0] = row;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * Indices internes triés du meilleur score au moins bon.
+         */
+        int[] sortedIndexes() {
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+            return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                int smallest = i;
+                if (left < count && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (left + 1 < count && scores[left + 1] < scores[smallest]) {
+                    smallest = left + 1;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int row = rows[a];
+            rows[a] = rows[b];
+            rows[b] = row;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore approximatif basé sur un graphe HNSW (Hierarchical Navigable Small World).
+ * <p>
+ * Au lieu de comparer la question à tous les vecteurs (InMemoryEmbeddingStore), la recherche
+ * descend les couches du graphe puis explore {@code efSearch} candidats dans la couche 0.
+ * Réglages :
+ * <ul>
+ *     <li>{@code m} : nombre de voisins par nœud (2*m dans la couche 0) ;</li>
+ *     <li>{@code efConstruction} : largeur de la recherche lors de l'insertion (qualité du graphe) ;</li>
+ *     <li>{@code efSearch} : largeur de la recherche à la requête (rappel vs latence).</li>
+ * </ul>
+ * Les vecteurs sont normalisés à l'insertion : la similarité cosinus devient un produit scalaire.
+ * Les scores, {@code maxResults} et {@code minScore} ont la même sémantique que l'InMemoryEmbeddingStore.
+ * Une recherche avec filtre de métadonnées se fait par parcours exact des segments filtrés.
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    private int size;
+    private float[][] vectors = new float[16][];
+    private String[] ids = new String[16];
+    private TextSegment[] segments = new TextSegment[16];
+    private boolean[] deleted = new boolean[16];
+    // links[nœud][couche] : links[..][..][0] = nombre de voisins, puis les voisins
+    private int[][][] links = new int[16][][];
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswEmbeddingStore() {
+        this(16, 200, 64);
+    }
+
+    /**
+     * @param m              voisins par nœud sur les couches hautes (2 * m sur la couche 0), au moins 2
+     * @param efConstruction taille de la liste de candidats à l'insertion, au moins 1
+     * @param efSearch       taille de la liste de candidats à la recherche, au moins 1
+     */
+    public HnswEmbeddingStore(int m, int efConstruction, int efSearch) {
+        // m = 1 donnerait un multiplicateur de niveau infini (1 / log 1)
+        if (m < 2) {
+            throw new IllegalArgumentException("m doit valoir au moins 2, reçu " + m);
+        }
+        if (efConstruction < 1) {
+            throw new IllegalArgumentException("efConstruction doit valoir au moins 1, reçu " + efConstruction);
+        }
+        checkEfSearch(efSearch);
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    /**
+     * Modifie efSearch sans reconstruire le graphe.
+     */
+    public void efSearch(int efSearch) {
+        checkEfSearch(efSearch);
+        this.efSearch = efSearch;
+    }
+
+    private static void checkEfSearch(int efSearch) {
+        if (efSearch < 1) {
+            throw new IllegalArgumentException("efSearch doit valoir au moins 1, reçu " + efSearch);
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> embedded) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                insert(newIds.get(i), VectorMath.normalized(embeddings.get(i).vector()),
+                        embedded == null ? null : embedded.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * La suppression marque les nœuds comme supprimés : ils restent navigables dans le graphe
+     * mais ne sont plus jamais retournés.
+     */
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                Integer node = nodeById.remove(id);
+                if (node != null && !deleted[node]) {
+                    deleted[node] = true;
+                    deletedCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        List<String> matching = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted[node] && segments[node] != null && filter.test(segments[node].metadata())) {
+                    matching.add(ids[node]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        removeAll(matching);
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            vectors = new float[16][];
+            ids = new String[16];
+            segments = new TextSegment[16];
+            deleted = new boolean[16];
+            links = new int[16][][];
+            nodeById.clear();
+            deletedCount = 0;
+            entryPoint = -1;
+            maxLevel = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return new EmbeddingSearchResult<>(matches);
+            }
+            List<Candidate> candidates = request.filter() == null
+                    ? searchGraph(query, Math.max(efSearch, request.maxResults() + Math.min(deletedCount, efSearch)))
+                    : searchExact(query, request.filter());
+            for (Candidate candidate : candidates) {
+                if (matches.size() == request.maxResults()) {
+                    break;
+                }
+                double score = RelevanceScore.fromCosineSimilarity(candidate.similarity());
+                if (deleted[candidate.node()] || score < request.minScore()) {
+                    continue;
+                }
+                matches.add(new EmbeddingMatch<>(score, ids[candidate.node()],
+                        Embedding.from(vectors[candidate.node()].clone()), segments[candidate.node()]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ==== Construction du graphe ====
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        Integer previous = nodeById.get(id);
+        if (previous != null && !deleted[previous]) {
+            deleted[previous] = true; // même id ré-ajouté : l'ancien nœud est remplacé
+            deletedCount++;
+        }
+        ensureCapacity(size + 1);
+        int node = size++;
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        vectors[node] = vector;
+        ids[node] = id;
+        segments[node] = segment;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxNeighbours(l) + 1];
+        }
+        nodeById.put(id, node);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(vector, current, efConstruction, l);
+            List<Candidate> selected = selectNeighbours(candidates, m);
+            for (Candidate neighbour : selected) {
+                addLink(node, neighbour.node(), l);
+                addLink(neighbour.node(), node, l);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    private void addLink(int from, int to, int level) {
+        int[] neighbours = links[from][level];
+        int count = neighbours[0];
+        int max = maxNeighbours(level);
+        if (count < max) {
+            neighbours[++neighbours[0]] = to;
+            return;
+        }
+        // Liste pleine : on garde les meilleurs voisins selon l'heuristique de sélection
+        List<Candidate> candidates = new ArrayList<>(count + 1);
+        for (int i = 1; i <= count; i++) {
+            candidates.add(new Candidate(neighbours[i], VectorMath.dot(vectors[from], vectors[neighbours[i]])));
+        }
+        candidates.add(new Candidate(to, VectorMath.dot(vectors[from], vectors[to])));
+        candidates.sort(Candidate.BEST_FIRST);
+        List<Candidate> kept = selectNeighbours(candidates, max);
+        neighbours[0] = kept.size();
+        for (int i = 0; i < kept.size(); i++) {
+            neighbours[i + 1] = kept.get(i).node();
+        }
+    }
+
+    /**
+     * Heuristique de sélection de l'article HNSW : un candidat n'est gardé que s'il est plus proche
+     * du nœud que de tous les voisins déjà retenus (diversité des directions), complété ensuite
+     * par les meilleurs candidats écartés.
+     */
+    private List<Candidate> selectNeighbours(List<Candidate> candidatesBestFirst, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> discarded = new ArrayList<>();
+        for (Candidate candidate : candidatesBestFirst) {
+            if (selected.size() == max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate kept : selected) {
+                if (VectorMath.dot(vectors[candidate.node()], vectors[kept.node()]) > candidate.similarity()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : discarded).add(candidate);
+        }
+        for (int i = 0; i < discarded.size() && selected.size() < max; i++) {
+            selected.add(discarded.get(i));
+        }
+        return selected;
+    }
+
+    private int maxNeighbours(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    // ==== Recherche ====
+
+    private List<Candidate> searchGraph(float[] query, int ef) {
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(query, current, l);
+        }
+        return searchLayer(query, current, ef, 0);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        double best = VectorMath.dot(query, vectors[current]);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                double similarity = VectorMath.dot(query, vectors[neighbours[i]]);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Recherche en faisceau dans une couche : retourne au plus {@code ef} candidats, du meilleur au moins bon.
+     */
+    private List<Candidate> searchLayer(float[] query, int start, int ef, int level) {
+        Visited seen = visited.get();
+        seen.reset(size);
+        PriorityQueue<Candidate> toExplore = new PriorityQueue<>(Candidate.BEST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.WORST_FIRST);
+        Candidate first = new Candidate(start, VectorMath.dot(query, vectors[start]));
+        seen.mark(start);
+        toExplore.add(first);
+        results.add(first);
+
+        while (!toExplore.isEmpty()) {
+            Candidate current = toExplore.poll();
+            if (results.size() >= ef && current.similarity() < results.peek().similarity()) {
+                break;
+            }
+            int[] neighbours = links[current.node()][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (!seen.mark(neighbour)) {
+                    continue;
+                }
+                double similarity = VectorMath.dot(query, vectors[neighbour]);
+                if (results.size() < ef || similarity > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbour, similarity);
+                    toExplore.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Candidate.BEST_FIRST);
+        return sorted;
+    }
+
+    private List<Candidate> searchExact(float[] query, Filter filter) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (int node = 0; node < size; node++) {
+            if (!deleted[node] && segments[node] != null && filter.test(segments[node].metadata())) {
+                candidates.add(new Candidate(node, VectorMath.dot(query, vectors[node])));
+            }
+        }
+        candidates.sort(Candidate.BEST_FIRST);
+        return candidates;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length * 2);
+        vectors = Arrays.copyOf(vectors, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+        segments = Arrays.copyOf(segments, newCapacity);
+        deleted = Arrays.copyOf(deleted, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+    }
+
+    private record Candidate(int node, double similarity) {
+        static final Comparator<Candidate> BEST_FIRST = Comparator.comparingDouble(Candidate::similarity).reversed();
+        static final Comparator<Candidate> WORST_FIRST = Comparator.comparingDouble(Candidate::similarity);
+    }
+
+    /**
+     * Marques de visite réutilisées d'une recherche à l'autre (une génération par recherche,
+     * pas de réallocation).
+     */
+    private static final class Visited {
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Retourne false si le nœud était déjà marqué.
+         */
+        boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
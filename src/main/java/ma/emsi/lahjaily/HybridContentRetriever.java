@@ -0,0 +1,123 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ContentRetriever hybride : recherche vectorielle dans le magasin d'embeddings et recherche BM25
+ * dans le {@link Bm25Index} des mêmes segments, fusionnées par rang (Reciprocal Rank Fusion).
+ * <p>
+ * Chaque segment reçoit {@code 1 / (k + rang)} pour chacune des deux listes où il apparaît ; les
+ * scores des deux recherches, qui ne sont pas comparables entre eux, ne sont pas utilisés directement.
+ * Un segment bien classé par les deux méthodes passe donc devant un segment qui n'est trouvé que par
+ * l'une d'elles, et une question contenant un sigle ou un code absent du vocabulaire du modèle
+ * d'embedding retrouve quand même le segment qui le contient, sans augmenter {@code maxResults}.
+ * <p>
+ * {@code minScore} filtre les candidats vectoriels. Un candidat lexical que la recherche vectorielle
+ * n'a pas retenu doit couvrir au moins {@code minLexicalCoverage} de la question (part des mots de la
+ * question qu'il contient, pondérée par leur rareté, voir {@link Bm25Index.Match#coverage()}) : un segment
+ * qui ne partage qu'un mot courant avec la question n'entre pas dans le prompt, un segment qui contient
+ * le code ou le sigle recherché y entre.
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private static final int DEFAULT_CANDIDATES = 10;
+    private static final int DEFAULT_RRF_K = 60;
+    private static final double DEFAULT_MIN_LEXICAL_COVERAGE = 0.5;
+
+    private final EmbeddingStore<TextSegment> embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final Bm25Index lexicalIndex;
+    private final int maxResults;
+    private final double minScore;
+    private final double minLexicalCoverage;
+    private final int candidates;
+    private final int rrfK;
+
+    public HybridContentRetriever(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+                                  Bm25Index lexicalIndex, int maxResults, double minScore) {
+        this(embeddingStore, embeddingModel, lexicalIndex, maxResults, minScore, DEFAULT_MIN_LEXICAL_COVERAGE,
+                DEFAULT_CANDIDATES, DEFAULT_RRF_K);
+    }
+
+    /**
+     * @param minLexicalCoverage part minimale de la question (entre 0 et 1) couverte par un candidat trouvé
+     *                           seulement par la recherche lexicale
+     * @param candidates         nombre de résultats demandés à chacune des deux recherches avant la fusion
+     * @param rrfK               constante de la fusion : plus elle est grande, moins le premier rang pèse
+     */
+    public HybridContentRetriever(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel,
+                                  Bm25Index lexicalIndex, int maxResults, double minScore, double minLexicalCoverage,
+                                  int candidates, int rrfK) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.lexicalIndex = lexicalIndex;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.minLexicalCoverage = minLexicalCoverage;
+        this.candidates = Math.max(candidates, maxResults);
+        this.rrfK = rrfK;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Map<String, Fused> fused = new LinkedHashMap<>();
+
+        Embedding queryEmbedding = embeddingModel.embed(query.text()).content();
+        List<EmbeddingMatch<TextSegment>> vectorMatches = embeddingStore.search(EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(candidates)
+                .minScore(minScore)
+                .build()).matches();
+        for (int rank = 0; rank < vectorMatches.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = vectorMatches.get(rank);
+            fused.computeIfAbsent(match.embeddingId(), id -> new Fused(id, match.embedded()))
+                    .score += 1.0 / (rrfK + rank + 1);
+        }
+
+        List<Bm25Index.Match> lexicalMatches = lexicalIndex.search(query.text(), candidates);
+        for (int rank = 0; rank < lexicalMatches.size(); rank++) {
+            Bm25Index.Match match = lexicalMatches.get(rank);
+            if (!fused.containsKey(match.id()) && match.coverage() < minLexicalCoverage) {
+                continue; // trouvé par un mot trop courant de la question, et pas assez proche en sens
+            }
+            fused.computeIfAbsent(match.id(), id -> new Fused(id, match.segment()))
+                    .score += 1.0 / (rrfK + rank + 1);
+        }
+
+        List<Fused> ranked = new ArrayList<>(fused.values());
+        // Tri stable : à score égal, l'ordre d'insertion (vectoriel d'abord) départage
+        ranked.sort((a, b) -> Double.compare(b.score, a.score));
+        List<Content> contents = new ArrayList<>(Math.min(maxResults, ranked.size()));
+        for (Fused f : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            contents.add(Content.from(f.segment, Map.of(
+                    ContentMetadata.SCORE, f.score,
+                    ContentMetadata.EMBEDDING_ID, f.id)));
+        }
+        return contents;
+    }
+
+    private static final class Fused {
+        final String id;
+        final TextSegment segment;
+        double score;
+
+        Fused(String id, TextSegment segment) {
+            this.id = id;
+            this.segment = segment;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ma.emsi.lahjaily;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de latences sans verrou : les valeurs sont rangées dans des classes géométriques
+ * de 2 % de largeur (de 1 µs à plus de 15 min), ce qui donne les percentiles à 2 % près
+ * pour une mémoire fixe (~9 Ko), quel que soit le nombre de mesures.
+ */
+public class LatencyHistogram {
+
+    private static final double GROWTH = 1.02;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final long MIN_NANOS = 1_000;
+    private static final int BUCKETS = 1_100;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        totalNanos.addAndGet(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long totalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Borne haute (en ns) de la classe contenant le percentile demandé, bornée par le maximum observé.
+     *
+     * @param percentile entre 0 et 100
+     */
+    public long percentileNanos(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public Snapshot snapshot() {
+        long total = count.get();
+        return new Snapshot(total, total == 0 ? 0 : totalNanos.get() / 1e6 / total,
+                percentileNanos(50) / 1e6, percentileNanos(95) / 1e6, percentileNanos(99) / 1e6, maxNanos.get() / 1e6);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos <= MIN_NANOS) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 1 + (int) (Math.log((double) nanos / MIN_NANOS) / LOG_GROWTH));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(MIN_NANOS * Math.pow(GROWTH, bucket));
+    }
+
+    /**
+     * Latences en millisecondes.
+     */
+    public record Snapshot(long count, double meanMillis, double p50Millis, double p95Millis, double p99Millis,
+                           double maxMillis) {
+        @Override
+        public String toString() {
+            return String.format("%d mesures, moyenne %.1f ms, p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    count, meanMillis, p50Millis, p95Millis, p99Millis, maxMillis);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.WebSearchContentRetriever;
+import dev.langchain4j.rag.query.router.DefaultQueryRouter;
+import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
+import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Test de charge de bout en bout, sans clé ni réseau : les pipelines de RagNaif ("naif"), TestRoutage
+ * ("routage") et TestWebRag ("web") sont reconstruits à l'identique, mais avec un {@link StubChatModel}
+ * et, pour le web, le {@link LocalWebSearchEngine}.
+ * <p>
+ * Les questions d'un fichier (load-queries.txt par défaut) sont envoyées à un débit cible fixe, réparties
+ * sur N sessions ; une session ne traite qu'une question à la fois. Les latences sont mesurées depuis
+ * l'instant où la question <em>aurait dû</em> partir, pour ne pas masquer l'attente quand le système sature.
+ * Le rapport ({@link PipelineMetrics#report()}) donne le débit obtenu et les p50/p95/p99 de chaque étape :
+ * attente de la session, embedding de la question, recherche vectorielle, routage, récupération par source,
+ * assemblage du prompt, appel au LLM, premier token et réponse complète, ainsi que les tokens échangés.
+ * <p>
+ * Paramètres (propriétés système) :
+ * <pre>
+ * rag.load.pipeline        naif,routage,web   pipelines à mesurer
+ * rag.load.rate            20                 questions par seconde
+ * rag.load.sessions        16                 sessions concurrentes
+ * rag.load.duration.s      30                 durée de chaque mesure
+ * rag.load.queries         (load-queries.txt) fichier de questions, une par ligne
+ * rag.stub.latency.ms      400                latence médiane du LLM simulé (premier token)
+ * rag.stub.sigma           0.5                dispersion log-normale de cette latence
+ * rag.stub.words           120                mots par réponse
+ * rag.stub.tokenInterval.ms 5                 délai entre deux tokens
+ * rag.web.latency.ms       300                latence de la recherche web simulée
+ * rag.cache.similarity     0.95               similarité minimale du cache des réponses (naif)
+ * rag.context.tokens       500                tokens de contexte au plus (web)
+ * rag.context.similarity   0.92               similarité au-delà de laquelle un contenu est un doublon (web)
+ * </pre>
+ * Exemple : {@code java -Drag.load.pipeline=web -Drag.load.rate=50 ma.emsi.lahjaily.LoadGenerator}
+ */
+public class LoadGenerator {
+
+    private static Path getPath(String fileName) {
+        try {
+            URI fileUri = LoadGenerator.class.getClassLoader().getResource(fileName).toURI();
+            return Paths.get(fileUri);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) {
+        double rate = Double.parseDouble(System.getProperty("rag.load.rate", "20"));
+        int sessions = Integer.getInteger("rag.load.sessions", 16);
+        Duration duration = Duration.ofSeconds(Long.getLong("rag.load.duration.s", 30));
+        String queriesFile = System.getProperty("rag.load.queries");
+        List<String> queries = loadQueries(queriesFile == null ? getPath("load-queries.txt") : Paths.get(queriesFile));
+
+        StubChatModel model = new StubChatModel(Duration.ofMillis(Long.getLong("rag.stub.latency.ms", 400)),
+                Double.parseDouble(System.getProperty("rag.stub.sigma", "0.5")),
+                Integer.getInteger("rag.stub.words", 120),
+                Duration.ofMillis(Long.getLong("rag.stub.tokenInterval.ms", 5)));
+
+        // Modèle et index chargés en parallèle ; la mesure ne commence qu'une fois tout prêt
+        RagRuntime runtime = RagRuntime.start();
+        EmbeddingModel embeddingModel = runtime.embeddingModel();
+        CompletableFuture<PersistentEmbeddingStore> ragIndex = runtime.ingest(getPath("rag.pdf"));
+        CompletableFuture<PersistentEmbeddingStore> financeIndex = runtime.ingest(getPath("finance.pdf"));
+        PersistentEmbeddingStore ragStore = ragIndex.join();
+        PersistentEmbeddingStore financeStore = financeIndex.join();
+        // Chauffe du modèle ONNX (sans remplir les caches des pipelines)
+        embeddingModel.embedAll(queries.stream().map(TextSegment::from).toList());
+
+        System.out.printf("Charge : %.1f questions/s, %d sessions, %d s par pipeline, %d questions distinctes%n",
+                rate, sessions, duration.toSeconds(), queries.size());
+        for (String name : System.getProperty("rag.load.pipeline", "naif,routage,web").split(",")) {
+            Pipeline pipeline = switch (name.strip()) {
+                case "naif" -> naivePipeline(model, embeddingModel, ragStore);
+                case "routage" -> routingPipeline(model, embeddingModel, ragStore, financeStore);
+                case "web" -> webPipeline(model, embeddingModel, ragStore);
+                default -> throw new IllegalArgumentException("Pipeline inconnu : " + name);
+            };
+            try {
+                run(pipeline, queries, rate, sessions, duration);
+            } finally {
+                pipeline.cleanup.run();
+            }
+        }
+    }
+
+    // ==== Pipelines (mêmes réglages que les classes principales) ====
+
+    private static Pipeline naivePipeline(StubChatModel model, EmbeddingModel embeddingModel,
+                                          PersistentEmbeddingStore ragStore) {
+        Pipeline pipeline = new Pipeline("naif");
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel);
+        ContentRetriever contentRetriever = pipeline.metrics.timedRetriever("recuperation_pdf", new HybridContentRetriever(
+                pipeline.metrics.timed(PipelineMetrics.VECTOR_SEARCH, ragStore),
+                pipeline.metrics.timed(PipelineMetrics.QUERY_EMBEDDING, queryEmbeddingModel),
+                Bm25Index.of(ragStore), 2, 0.5));
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(queryEmbeddingModel, 1_000,
+                Double.parseDouble(System.getProperty("rag.cache.similarity", "0.95")), ragStore::generation,
+                pipeline.metrics);
+        pipeline.assistant = assistant(pipeline, model, DefaultRetrievalAugmentor.builder()
+                .contentRetriever(contentRetriever), answerCache);
+        return pipeline;
+    }
+
+    private static Pipeline routingPipeline(StubChatModel model, EmbeddingModel embeddingModel,
+                                            EmbeddingStore<TextSegment> ragStore,
+                                            EmbeddingStore<TextSegment> financeStore) {
+        Pipeline pipeline = new Pipeline("routage");
+        BatchingEmbeddingModel batchingEmbeddingModel = new BatchingEmbeddingModel(embeddingModel);
+        pipeline.cleanup = batchingEmbeddingModel::close;
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(batchingEmbeddingModel);
+        EmbeddingModel timedQueryEmbeddingModel = pipeline.metrics.timed(PipelineMetrics.QUERY_EMBEDDING,
+                queryEmbeddingModel);
+
+        ContentRetriever ragRetriever = pipeline.metrics.timedRetriever("recuperation_rag", new HybridContentRetriever(
+                pipeline.metrics.timed(PipelineMetrics.VECTOR_SEARCH, ragStore), timedQueryEmbeddingModel,
+                Bm25Index.of(ragStore), 2, 0.0));
+        ContentRetriever financeRetriever = pipeline.metrics.timedRetriever("recuperation_finance", new HybridContentRetriever(
+                pipeline.metrics.timed(PipelineMetrics.VECTOR_SEARCH, financeStore), timedQueryEmbeddingModel,
+                Bm25Index.of(financeStore), 2, 0.0));
+        Map<ContentRetriever, String> retrieverMap = new HashMap<>();
+        retrieverMap.put(ragRetriever, "Information sur le RAG (Retrieval-Augmented Generation) et l'intelligence artificielle");
+        retrieverMap.put(financeRetriever, "Information sur la finance, l'économie, les banques et les investissements");
+
+        CachingQueryRouter llmRouter = new CachingQueryRouter(new LanguageModelQueryRouter(model, retrieverMap),
+                queryEmbeddingModel);
+        EmbeddingQueryRouter queryRouter = new EmbeddingQueryRouter(queryEmbeddingModel, retrieverMap, llmRouter)
+                .sampleQueries(ragRetriever,
+                        "Qu'est-ce que le RAG ?",
+                        "Comment fonctionne un modèle d'embedding ?",
+                        "À quoi sert un EmbeddingStore ?")
+                .sampleQueries(financeRetriever,
+                        "Qu'est-ce qu'un taux d'intérêt ?",
+                        "Comment fonctionne la bourse ?",
+                        "Quel est le rôle d'une banque centrale ?");
+
+        pipeline.assistant = assistant(pipeline, model, DefaultRetrievalAugmentor.builder()
+                .queryRouter(pipeline.metrics.timedRouter(PipelineMetrics.ROUTING, queryRouter)), null);
+        return pipeline;
+    }
+
+    private static Pipeline webPipeline(StubChatModel model, EmbeddingModel embeddingModel,
+                                        EmbeddingStore<TextSegment> ragStore) {
+        Pipeline pipeline = new Pipeline("web");
+        ContentRetriever ragRetriever = new HybridContentRetriever(
+                pipeline.metrics.timed(PipelineMetrics.VECTOR_SEARCH, ragStore),
+                pipeline.metrics.timed(PipelineMetrics.QUERY_EMBEDDING, new CachingEmbeddingModel(embeddingModel)),
+                Bm25Index.of(ragStore), 2, 0.5);
+        CachingWebSearchEngine webSearchEngine = new CachingWebSearchEngine(new LocalWebSearchEngine(
+                getPath("web-corpus.txt"), Duration.ofMillis(Long.getLong("rag.web.latency.ms", 300)),
+                Duration.ofMillis(200)));
+        ContentRetriever webRetriever = WebSearchContentRetriever.builder()
+                .webSearchEngine(webSearchEngine)
+                .build();
+
+        ContentRetriever localSource = pipeline.metrics.timedRetriever("recuperation_pdf", new DeadlineContentRetriever(
+                "PDF local", ragRetriever, Duration.ofMillis(Long.getLong("rag.deadline.local.ms", 250))));
+        ContentRetriever webSource = new DeadlineContentRetriever("Web",
+                pipeline.metrics.timedRetriever(PipelineMetrics.WEB_RETRIEVAL, webRetriever),
+                Duration.ofMillis(Long.getLong("rag.deadline.web.ms", 800)));
+
+        PackingContentAggregator contentAggregator = new PackingContentAggregator(embeddingModel,
+                Integer.getInteger("rag.context.tokens", 500),
+                Double.parseDouble(System.getProperty("rag.context.similarity", "0.92")), pipeline.metrics);
+
+        pipeline.assistant = assistant(pipeline, model, DefaultRetrievalAugmentor.builder()
+                .queryRouter(new DefaultQueryRouter(localSource, webSource))
+                .contentAggregator(contentAggregator)
+                .executor(DeadlineContentRetriever.virtualThreadExecutor()), null);
+        return pipeline;
+    }
+
+    /**
+     * Assistant du pipeline : assemblage du prompt et appels au LLM (hors routage) mesurés.
+     *
+     * @param answerCache cache des réponses comme dans la classe principale, ou null
+     */
+    private static SessionAssistant assistant(Pipeline pipeline, StubChatModel model,
+                                              DefaultRetrievalAugmentor.DefaultRetrievalAugmentorBuilder augmentor,
+                                              SemanticAnswerCache answerCache) {
+        CompactChatMemoryStore memoryStore = new CompactChatMemoryStore();
+        StubChatModel listenedModel = model.withListeners(List.of(pipeline.metrics.chatModelListener()));
+        ContentInjector injector = pipeline.metrics.timed(PipelineMetrics.PROMPT_ASSEMBLY,
+                DefaultContentInjector.builder().build());
+        return AiServices.builder(SessionAssistant.class)
+                .chatModel(answerCache == null ? listenedModel : answerCache.chatModel(listenedModel))
+                .streamingChatModel(answerCache == null ? listenedModel.streaming()
+                        : answerCache.streaming(listenedModel.streaming()))
+                .retrievalAugmentor(augmentor
+                        .contentInjector(answerCache == null ? injector : answerCache.injector(injector))
+                        .build())
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.builder()
+                        .id(sessionId)
+                        .maxMessages(100)
+                        .chatMemoryStore(memoryStore)
+                        .build())
+                .build();
+    }
+
+    // ==== Injection de la charge ====
+
+    private static void run(Pipeline pipeline, List<String> queries, double rate, int sessions, Duration duration) {
+        LatencyHistogram sessionWait = pipeline.metrics.timer("attente_session");
+        LatencyHistogram firstToken = pipeline.metrics.timer("premier_token");
+        LatencyHistogram complete = pipeline.metrics.timer("reponse_complete");
+        Map<String, ReentrantLock> sessionLocks = new ConcurrentHashMap<>();
+        AtomicLong failures = new AtomicLong();
+
+        long intervalNanos = (long) (1e9 / rate);
+        long total = (long) (rate * duration.toSeconds());
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; i < total; i++) {
+                long scheduled = start + i * intervalNanos;
+                for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                String sessionId = "session-" + (i % sessions);
+                String query = queries.get((int) (i % queries.size()));
+                executor.submit(() -> {
+                    ReentrantLock lock = sessionLocks.computeIfAbsent(sessionId, id -> new ReentrantLock());
+                    lock.lock();
+                    try {
+                        sessionWait.record(System.nanoTime() - scheduled);
+                        CompletableFuture<Void> done = new CompletableFuture<>();
+                        AtomicBoolean first = new AtomicBoolean();
+                        pipeline.assistant.chatStream(sessionId, query)
+                                .onPartialResponse(token -> {
+                                    if (first.compareAndSet(false, true)) {
+                                        firstToken.record(System.nanoTime() - scheduled);
+                                    }
+                                })
+                                .onCompleteResponse(response -> {
+                                    complete.record(System.nanoTime() - scheduled);
+                                    done.complete(null);
+                                })
+                                .onError(done::completeExceptionally)
+                                .start();
+                        done.join();
+                    } catch (RuntimeException e) { // CompletionException comprise
+                        failures.incrementAndGet();
+                    } finally {
+                        lock.unlock();
+                    }
+                });
+            }
+        } // close() attend la fin de toutes les questions
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%nPipeline %s : %d questions en %.1f s, débit %.1f réponses/s (cible %.1f), %d échecs%n",
+                pipeline.name, total, elapsedSeconds, complete.count() / elapsedSeconds, rate, failures.get());
+        System.out.print(pipeline.metrics.report());
+    }
+
+    private static List<String> loadQueries(Path file) {
+        try {
+            List<String> queries = Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+                    .map(String::strip)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .toList();
+            if (queries.isEmpty()) {
+                throw new IllegalArgumentException("Aucune question dans " + file);
+            }
+            return queries;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Un assistant et les métriques de ses étapes.
+     */
+    private static final class Pipeline {
+        private final String name;
+        private final PipelineMetrics metrics = new PipelineMetrics();
+        private SessionAssistant assistant;
+        private Runnable cleanup = () -> {
+        };
+
+        Pipeline(String name) {
+            this.name = name;
+            metrics.timer("attente_session"); // en tête du rapport
+        }
+    }
+}
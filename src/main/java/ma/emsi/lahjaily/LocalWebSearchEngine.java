@@ -0,0 +1,140 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.web.search.WebSearchEngine;
+import dev.langchain4j.web.search.WebSearchInformationResult;
+import dev.langchain4j.web.search.WebSearchOrganicResult;
+import dev.langchain4j.web.search.WebSearchRequest;
+import dev.langchain4j.web.search.WebSearchResults;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * WebSearchEngine hors ligne : les "pages" viennent d'un fichier texte local et la latence
+ * réseau est simulée. Permet de tester et de mesurer le RAG web sans clé Tavily ni réseau.
+ * <p>
+ * Format du fichier : des entrées séparées par une ligne {@code ---} ; la première ligne d'une entrée
+ * est le titre, la deuxième l'URL, la suite le contenu. Les pages sont classées par nombre de mots
+ * de la requête qu'elles contiennent (les mots du titre comptent double).
+ */
+public class LocalWebSearchEngine implements WebSearchEngine {
+
+    private static final int DEFAULT_MAX_RESULTS = 5;
+    private static final int SNIPPET_LENGTH = 200;
+    private static final Set<String> STOP_WORDS = Set.of("les", "des", "une", "est", "que", "qui", "quoi", "pour",
+            "dans", "par", "sur", "avec", "sont", "quel", "quelle", "quels", "comment", "the", "and", "what");
+
+    private final List<Page> pages = new ArrayList<>();
+    private final long latencyMillis;
+    private final long jitterMillis;
+
+    /**
+     * @param latency latence simulée de chaque recherche
+     * @param jitter  variation aléatoire ajoutée à la latence (entre 0 et jitter)
+     */
+    public LocalWebSearchEngine(Path corpus, Duration latency, Duration jitter) {
+        this.latencyMillis = latency.toMillis();
+        this.jitterMillis = jitter.toMillis();
+        try {
+            String text = Files.readString(corpus, StandardCharsets.UTF_8);
+            for (String entry : text.split("(?m)^---\\s*$")) {
+                String[] lines = entry.strip().split("\\R", 3);
+                if (lines.length == 3) {
+                    pages.add(new Page(lines[0].strip(), URI.create(lines[1].strip()), lines[2].strip()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public WebSearchResults search(WebSearchRequest request) {
+        simulateLatency();
+        Set<String> terms = words(request.searchTerms());
+        int maxResults = request.maxResults() == null ? DEFAULT_MAX_RESULTS : request.maxResults();
+
+        List<ScoredPage> scored = new ArrayList<>();
+        for (Page page : pages) {
+            int score = 0;
+            for (String term : terms) {
+                if (page.titleWords.contains(term)) {
+                    score += 2;
+                }
+                if (page.contentWords.contains(term)) {
+                    score++;
+                }
+            }
+            if (score > 0) {
+                scored.add(new ScoredPage(page, score));
+            }
+        }
+        scored.sort(Comparator.comparingInt(ScoredPage::score).reversed());
+
+        List<WebSearchOrganicResult> results = new ArrayList<>();
+        for (ScoredPage scoredPage : scored.subList(0, Math.min(maxResults, scored.size()))) {
+            Page page = scoredPage.page;
+            String snippet = page.content.length() <= SNIPPET_LENGTH ? page.content
+                    : page.content.substring(0, SNIPPET_LENGTH) + "...";
+            results.add(WebSearchOrganicResult.from(page.title, page.url, snippet, page.content));
+        }
+        return WebSearchResults.from(WebSearchInformationResult.from((long) scored.size()), results);
+    }
+
+    private void simulateLatency() {
+        long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // Recherche annulée (délai dépassé) : on rend la main tout de suite
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Mots de plus de 2 lettres hors mots vides, en minuscules et sans accents.
+     */
+    private static Set<String> words(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        Set<String> words = new HashSet<>();
+        for (String word : folded.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 2 && !STOP_WORDS.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static final class Page {
+        private final String title;
+        private final URI url;
+        private final String content;
+        private final Set<String> titleWords;
+        private final Set<String> contentWords;
+
+        Page(String title, URI url, String content) {
+            this.title = title;
+            this.url = url;
+            this.content = content;
+            this.titleWords = words(title);
+            this.contentWords = words(content);
+        }
+    }
+
+    private record ScoredPage(Page page, int score) {
+    }
+}
@@ -0,0 +1,299 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.aggregator.ContentAggregator;
+import dev.langchain4j.rag.content.aggregator.DefaultContentAggregator;
+import dev.langchain4j.rag.query.Query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ContentAggregator qui compacte le contexte injecté dans le prompt.
+ * <p>
+ * Après la fusion habituelle des résultats de toutes les sources (Reciprocal Rank Fusion du
+ * DefaultContentAggregator) :
+ * <ol>
+ *   <li>les segments voisins d'un même document (métadonnées {@code file_name} et {@code index}) sont
+ *   réunis en un seul passage, sans répéter le chevauchement du découpage ; le passage prend le rang
+ *   du mieux classé ;</li>
+ *   <li>un contenu trop proche d'un contenu mieux classé (cosinus des embeddings au moins égal à
+ *   {@code duplicateSimilarity}) est écarté : même paragraphe trouvé dans le PDF et sur le web,
+ *   extraits web recopiés d'un site à l'autre ;</li>
+ *   <li>les contenus restants sont pris par rang tant qu'ils tiennent dans {@code tokenBudget} tokens
+ *   (estimés à ~4 caractères par token) ; un contenu trop long pour la place restante laisse passer
+ *   les suivants.</li>
+ * </ol>
+ * Rien n'est affiché par requête : les tokens gardés et économisés sont comptés dans
+ * {@link PipelineMetrics#CONTEXT_TOKENS} et {@link PipelineMetrics#CONTEXT_TOKENS_SAVED}, le détail
+ * dans {@link #stats()}.
+ * Les embeddings des contenus sont gardés en cache : un segment déjà vu n'est pas ré-embeddé.
+ */
+public class PackingContentAggregator implements ContentAggregator {
+
+    private static final double DEFAULT_DUPLICATE_SIMILARITY = 0.92;
+    private static final int EMBEDDING_CACHE_SIZE = 4_096;
+    // Chevauchement minimal reconnu entre deux segments voisins (en dessous : simple espace)
+    private static final int MIN_OVERLAP = 4;
+
+    private final ContentAggregator fusion = new DefaultContentAggregator();
+    private final EmbeddingModel embeddingModel;
+    private final CachingEmbeddingModel contentEmbeddings;
+    private final int tokenBudget;
+    private final double duplicateSimilarity;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder overBudget = new LongAdder();
+    private final LongAdder tokensKept;
+    private final LongAdder tokensSaved;
+
+    public PackingContentAggregator(EmbeddingModel embeddingModel, int tokenBudget) {
+        this(embeddingModel, tokenBudget, DEFAULT_DUPLICATE_SIMILARITY, new PipelineMetrics());
+    }
+
+    /**
+     * @param embeddingModel      modèle utilisé pour comparer les contenus (le même que celui de l'index)
+     * @param tokenBudget         tokens de contexte au plus par requête
+     * @param duplicateSimilarity cosinus à partir duquel deux contenus sont considérés comme des doublons
+     */
+    public PackingContentAggregator(EmbeddingModel embeddingModel, int tokenBudget, double duplicateSimilarity,
+                                    PipelineMetrics metrics) {
+        this.embeddingModel = embeddingModel;
+        this.contentEmbeddings = new CachingEmbeddingModel(embeddingModel, EMBEDDING_CACHE_SIZE);
+        this.tokenBudget = tokenBudget;
+        this.duplicateSimilarity = duplicateSimilarity;
+        this.tokensKept = metrics.counter(PipelineMetrics.CONTEXT_TOKENS);
+        this.tokensSaved = metrics.counter(PipelineMetrics.CONTEXT_TOKENS_SAVED);
+    }
+
+    @Override
+    public List<Content> aggregate(Map<Query, Collection<List<Content>>> queryToContents) {
+        List<Content> fused = fusion.aggregate(queryToContents);
+        if (fused.isEmpty()) {
+            return fused;
+        }
+        requests.increment();
+        List<Content> packed = pack(dropDuplicates(mergeNeighbours(fused)));
+        int before = tokens(fused);
+        int after = tokens(packed);
+        tokensKept.add(after);
+        tokensSaved.add(before - after);
+        return packed;
+    }
+
+    // ==== 1. Segments voisins d'un même document ====
+
+    /**
+     * Regroupe les suites d'index consécutifs de chaque document ; chaque suite devient un seul
+     * contenu, placé au rang de son meilleur élément.
+     */
+    private List<Content> mergeNeighbours(List<Content> ranked) {
+        Map<String, List<Integer>> byDocument = new LinkedHashMap<>();
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            Metadata metadata = ranked.get(rank).textSegment().metadata();
+            if (metadata.getString("file_name") != null && metadata.getInteger("index") != null) {
+                byDocument.computeIfAbsent(metadata.getString("file_name"), d -> new ArrayList<>()).add(rank);
+            }
+        }
+
+        // rang du meilleur élément -> passage fusionné ; rangs absorbés par un passage
+        Map<Integer, Content> passages = new HashMap<>();
+        Set<Integer> absorbed = new HashSet<>();
+        for (List<Integer> ranks : byDocument.values()) {
+            ranks.sort((a, b) -> Integer.compare(index(ranked.get(a)), index(ranked.get(b))));
+            int start = 0;
+            for (int i = 1; i <= ranks.size(); i++) {
+                if (i < ranks.size()
+                        && index(ranked.get(ranks.get(i))) <= index(ranked.get(ranks.get(i - 1))) + 1) {
+                    continue; // la suite continue
+                }
+                if (i - start > 1) {
+                    List<Integer> run = ranks.subList(start, i);
+                    int best = run.stream().min(Integer::compare).orElseThrow();
+                    passages.put(best, merge(run.stream().map(ranked::get).toList()));
+                    absorbed.addAll(run);
+                    merged.add(run.size() - 1);
+                }
+                start = i;
+            }
+        }
+
+        List<Content> result = new ArrayList<>(ranked.size());
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            if (passages.containsKey(rank)) {
+                result.add(passages.get(rank));
+            } else if (!absorbed.contains(rank)) {
+                result.add(ranked.get(rank));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Passage formé de segments consécutifs (triés par index) ; un segment présent deux fois
+     * (même index, renvoyé par deux sources) n'est gardé qu'une fois.
+     */
+    private static Content merge(List<Content> run) {
+        StringBuilder text = new StringBuilder(run.get(0).textSegment().text());
+        TreeSet<String> ids = new TreeSet<>();
+        Double score = null;
+        int previousIndex = -1;
+        for (Content content : run) {
+            Object id = content.metadata().get(ContentMetadata.EMBEDDING_ID);
+            if (id != null) {
+                ids.add(id.toString());
+            }
+            if (content.metadata().get(ContentMetadata.SCORE) instanceof Double contentScore) {
+                score = score == null ? contentScore : Math.max(score, contentScore);
+            }
+            int index = index(content);
+            if (previousIndex >= 0 && index != previousIndex) {
+                appendWithoutOverlap(text, content.textSegment().text());
+            }
+            previousIndex = index;
+        }
+        Map<ContentMetadata, Object> metadata = new HashMap<>();
+        if (score != null) {
+            metadata.put(ContentMetadata.SCORE, score);
+        }
+        if (!ids.isEmpty()) {
+            metadata.put(ContentMetadata.EMBEDDING_ID, String.join("+", ids));
+        }
+        return Content.from(TextSegment.from(text.toString(), run.get(0).textSegment().metadata().copy()), metadata);
+    }
+
+    /**
+     * Ajoute {@code next} sans répéter le plus long suffixe de {@code text} par lequel il commence
+     * (le chevauchement du splitter, au plus 2 × {@link DocumentIngestor#MAX_OVERLAP_SIZE} caractères).
+     */
+    static void appendWithoutOverlap(StringBuilder text, String next) {
+        int maxOverlap = Math.min(2 * DocumentIngestor.MAX_OVERLAP_SIZE, Math.min(text.length(), next.length()));
+        for (int overlap = maxOverlap; overlap >= MIN_OVERLAP; overlap--) {
+            if (text.substring(text.length() - overlap).equals(next.substring(0, overlap))) {
+                text.append(next, overlap, next.length());
+                return;
+            }
+        }
+        text.append(' ').append(next);
+    }
+
+    private static int index(Content content) {
+        return content.textSegment().metadata().getInteger("index");
+    }
+
+    // ==== 2. Doublons ====
+
+    private List<Content> dropDuplicates(List<Content> ranked) {
+        if (ranked.size() < 2 || !modelReady()) {
+            return ranked;
+        }
+        List<Content> kept = new ArrayList<>(ranked.size());
+        List<float[]> keptVectors = new ArrayList<>(ranked.size());
+        for (Content content : ranked) {
+            float[] vector = VectorMath.normalized(
+                    contentEmbeddings.embed(content.textSegment().text()).content().vector());
+            boolean duplicate = false;
+            for (float[] other : keptVectors) {
+                if (VectorMath.dot(vector, other) >= duplicateSimilarity) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) {
+                duplicates.increment();
+            } else {
+                kept.add(content);
+                keptVectors.add(vector);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Pendant le démarrage (modèle de RagRuntime pas encore chargé), les doublons ne sont pas cherchés :
+     * la réponse n'attend pas le modèle.
+     */
+    private boolean modelReady() {
+        return !(embeddingModel instanceof RagRuntime.LazyEmbeddingModel lazy) || lazy.isLoaded();
+    }
+
+    // ==== 3. Budget de tokens ====
+
+    private List<Content> pack(List<Content> ranked) {
+        List<Content> packed = new ArrayList<>(ranked.size());
+        int remaining = tokenBudget;
+        for (Content content : ranked) {
+            int tokens = tokens(content.textSegment().text());
+            if (tokens <= remaining) {
+                packed.add(content);
+                remaining -= tokens;
+            } else {
+                overBudget.increment();
+            }
+        }
+        if (packed.isEmpty()) {
+            // Le premier contenu dépasse à lui seul le budget : on en garde le début
+            Content first = ranked.get(0);
+            packed.add(Content.from(TextSegment.from(truncate(first.textSegment().text(), tokenBudget * 4),
+                    first.textSegment().metadata()), first.metadata()));
+        }
+        return packed;
+    }
+
+    private static String truncate(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int space = text.lastIndexOf(' ', maxChars);
+        return text.substring(0, space > 0 ? space : maxChars);
+    }
+
+    /**
+     * Estimation grossière : environ 4 caractères par token.
+     */
+    private static int tokens(String text) {
+        return (text.length() + 3) / 4;
+    }
+
+    private static int tokens(List<Content> contents) {
+        int tokens = 0;
+        for (Content content : contents) {
+            tokens += tokens(content.textSegment().text());
+        }
+        return tokens;
+    }
+
+    public Stats stats() {
+        return new Stats(requests.sum(), tokensKept.sum(), tokensSaved.sum(), merged.sum(), duplicates.sum(),
+                overBudget.sum());
+    }
+
+    public record Stats(long requests, long tokensKept, long tokensSaved, long merged, long duplicates,
+                        long overBudget) {
+        public double savedRate() {
+            long total = tokensKept + tokensSaved;
+            return total == 0 ? 0 : (double) tokensSaved / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requêtes, %d tokens de contexte injectés, %d économisés (%.0f %%), "
+                            + "%d segments fusionnés, %d doublons, %d contenus hors budget",
+                    requests, tokensKept, tokensSaved, savedRate() * 100, merged, duplicates, overBudget);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Moteur d'ingestion parallèle de plusieurs documents.
+ * <p>
+ * Les étapes sont chaînées par des files bornées (backpressure) :
+ * <pre>
+ * pool de parsing (Tika) → découpage → pool d'embedding (par lots) → écriture dans les magasins
+ * </pre>
+ * Pendant que Tika parse un document, le modèle ONNX embed déjà les lots du précédent.
+ * Les index à jour sur disque sont rechargés directement (voir {@link DocumentIngestor}) et les
+ * segments déjà présents dans le {@link SegmentEmbeddingCache} ne sont pas ré-embeddés.
+ * <p>
+ * À la première erreur d'une étape, l'ingestion est abandonnée : les pools sont arrêtés (ce qui
+ * débloque les étapes en attente sur une file) et {@link #ingest} lève une IllegalStateException.
+ */
+public class ParallelIngestionEngine {
+
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private final EmbeddingModel embeddingModel;
+    private final int parseThreads;
+    private final int embedThreads;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final DocumentParser parser = RagRuntime.documentParser();
+
+    public ParallelIngestionEngine(EmbeddingModel embeddingModel) {
+        this(embeddingModel, 2, Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+                DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public ParallelIngestionEngine(EmbeddingModel embeddingModel, int parseThreads, int embedThreads,
+                                   int batchSize, int queueCapacity) {
+        this.embeddingModel = embeddingModel;
+        this.parseThreads = parseThreads;
+        this.embedThreads = embedThreads;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Ingère tous les documents et retourne un EmbeddingStore par corpus (nom du corpus → documents).
+     */
+    public Result ingest(Map<String, List<Path>> corpora) {
+        long start = System.nanoTime();
+        List<DocumentJob> jobs = new ArrayList<>();
+        corpora.forEach((corpus, paths) -> paths.forEach(path -> jobs.add(new DocumentJob(corpus, path))));
+
+        SegmentEmbeddingCache cache = DocumentIngestor.segmentCache(embeddingModel);
+        BlockingQueue<Object> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> batches = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> embedded = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Terminé par l'écrivain, ou dès la première erreur : personne ne reste bloqué sur une file
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        Consumer<Throwable> fail = t -> {
+            failure.compareAndSet(null, t);
+            finished.complete(null);
+        };
+        AtomicInteger embeddedSegments = new AtomicInteger();
+        AtomicInteger remainingParses = new AtomicInteger(jobs.size());
+
+        ExecutorService parsePool = Executors.newFixedThreadPool(parseThreads);
+        ExecutorService embedPool = Executors.newFixedThreadPool(embedThreads);
+        ExecutorService stagePool = Executors.newFixedThreadPool(2);
+        try {
+            // Étape 1 : parsing (ou rechargement direct de l'index s'il est à jour) ;
+            // le dernier document traité ferme la file
+            if (jobs.isEmpty()) {
+                put(parsed, END);
+            }
+            for (DocumentJob job : jobs) {
+                parsePool.submit(() -> {
+                    try {
+                        job.key = DocumentIngestor.indexKey(job.path, embeddingModel);
+                        Path indexFile = DocumentIngestor.indexFile(job.path, embeddingModel);
+                        if (job.key.equals(PersistentEmbeddingStore.readKey(indexFile))) {
+                            job.store = PersistentEmbeddingStore.load(indexFile);
+                            job.fromIndex = true;
+                        } else {
+                            Document document = FileSystemDocumentLoader.loadDocument(job.path, parser);
+                            put(parsed, new Parsed(job, document));
+                        }
+                        if (remainingParses.decrementAndGet() == 0) {
+                            put(parsed, END);
+                        }
+                    } catch (Throwable t) {
+                        fail.accept(t);
+                    }
+                });
+            }
+
+            // Étape 2 : découpage en segments puis en lots
+            stagePool.submit(() -> {
+                try {
+                    DocumentSplitter splitter = DocumentSplitters.recursive(
+                            DocumentIngestor.MAX_SEGMENT_SIZE, DocumentIngestor.MAX_OVERLAP_SIZE);
+                    for (Object item = parsed.take(); item != END; item = parsed.take()) {
+                        Parsed p = (Parsed) item;
+                        List<TextSegment> segments = splitter.split(p.document());
+                        List<String> ids = DocumentIngestor.segmentIds(segments);
+                        p.job().store = new PersistentEmbeddingStore();
+                        p.job().totalBatches = Math.max(1, (segments.size() + batchSize - 1) / batchSize);
+                        for (int from = 0; from < segments.size() || from == 0; from += batchSize) {
+                            int to = Math.min(segments.size(), from + batchSize);
+                            put(batches, new Batch(p.job(), ids.subList(from, to), segments.subList(from, to)));
+                        }
+                    }
+                } catch (Throwable t) {
+                    fail.accept(t);
+                } finally {
+                    for (int i = 0; i < embedThreads; i++) {
+                        put(batches, END);
+                    }
+                }
+            });
+
+            // Étape 3 : embeddings par lots (seuls les segments absents du cache passent par le modèle)
+            for (int i = 0; i < embedThreads; i++) {
+                embedPool.submit(() -> {
+                    try {
+                        for (Object item = batches.take(); item != END; item = batches.take()) {
+                            Batch batch = (Batch) item;
+                            put(embedded, new EmbeddedBatch(batch, embed(batch.segments(), cache, embeddedSegments)));
+                        }
+                    } catch (Throwable t) {
+                        fail.accept(t);
+                    } finally {
+                        put(embedded, END);
+                    }
+                });
+            }
+
+            // Étape 4 : un seul écrivain par magasin, l'index est sauvegardé dès que le document est complet
+            stagePool.submit(() -> {
+                try {
+                    int finishedEmbedders = 0;
+                    while (finishedEmbedders < embedThreads) {
+                        Object item = take(embedded);
+                        if (item == END) {
+                            finishedEmbedders++;
+                            continue;
+                        }
+                        EmbeddedBatch e = (EmbeddedBatch) item;
+                        DocumentJob job = e.batch().job();
+                        job.store.addAll(e.batch().ids(), e.embeddings(), e.batch().segments());
+                        if (++job.writtenBatches == job.totalBatches) {
+                            job.store.save(DocumentIngestor.indexFile(job.path, embeddingModel), job.key);
+                        }
+                    }
+                    finished.complete(null);
+                } catch (Throwable t) {
+                    fail.accept(t);
+                }
+            });
+
+            finished.get();
+        } catch (Exception e) {
+            fail.accept(e);
+        } finally {
+            // Après une erreur, interrompt les étapes encore bloquées sur une file
+            parsePool.shutdownNow();
+            embedPool.shutdownNow();
+            stagePool.shutdownNow();
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Échec de l'ingestion parallèle", failure.get());
+        }
+        cache.save();
+        return new Result(corpusStores(corpora, jobs), stats(jobs, embeddedSegments.get(), start));
+    }
+
+    private List<Embedding> embed(List<TextSegment> segments, SegmentEmbeddingCache cache, AtomicInteger counter) {
+        Embedding[] embeddings = new Embedding[segments.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            embeddings[i] = cache.get(SegmentEmbeddingCache.hash(segments.get(i).text()));
+            if (embeddings[i] == null) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<TextSegment> toEmbed = missing.stream().map(segments::get).toList();
+            List<Embedding> computed = embeddingModel.embedAll(toEmbed).content();
+            for (int j = 0; j < missing.size(); j++) {
+                embeddings[missing.get(j)] = computed.get(j);
+                cache.put(SegmentEmbeddingCache.hash(toEmbed.get(j).text()), computed.get(j));
+            }
+            counter.addAndGet(missing.size());
+        }
+        return Arrays.asList(embeddings);
+    }
+
+    private static Map<String, EmbeddingStore<TextSegment>> corpusStores(Map<String, List<Path>> corpora,
+                                                                         List<DocumentJob> jobs) {
+        Map<String, EmbeddingStore<TextSegment>> stores = new LinkedHashMap<>();
+        for (String corpus : corpora.keySet()) {
+            List<DocumentJob> corpusJobs = jobs.stream().filter(job -> job.corpus.equals(corpus)).toList();
+            if (corpusJobs.size() == 1) {
+                stores.put(corpus, corpusJobs.get(0).store);
+                continue;
+            }
+            // Plusieurs documents dans le même corpus : on fusionne leurs index dans un seul magasin.
+            // Les ids (hash du texte) ne sont uniques que dans un document : ils sont préfixés par le
+            // nom du fichier, pour qu'un segment présent dans deux documents ne donne pas deux fois le même id
+            PersistentEmbeddingStore merged = new PersistentEmbeddingStore();
+            Set<String> names = new HashSet<>();
+            for (int i = 0; i < corpusJobs.size(); i++) {
+                DocumentJob job = corpusJobs.get(i);
+                String name = job.path.getFileName().toString();
+                // deux fichiers de même nom (répertoires différents) : le rang du document les distingue
+                String prefix = (names.add(name) ? name : name + "#" + i) + "/";
+                job.store.forEach((id, embedding, segment) ->
+                        merged.addAll(List.of(prefix + id), List.of(embedding), Arrays.asList(segment)));
+            }
+            stores.put(corpus, merged);
+        }
+        return stores;
+    }
+
+    private static Stats stats(List<DocumentJob> jobs, int embeddedSegments, long startNanos) {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        int segments = jobs.stream().mapToInt(job -> job.store.size()).sum();
+        int fromIndex = (int) jobs.stream().filter(job -> job.fromIndex).count();
+        return new Stats(jobs.size(), fromIndex, segments, embeddedSegments, elapsedMillis);
+    }
+
+    private static void put(BlockingQueue<Object> queue, Object item) {
+        try {
+            queue.put(item); // bloque si l'étape suivante est en retard (backpressure)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object take(BlockingQueue<Object> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Marqueur de fin de flux dans les files
+    private static final Object END = new Object();
+
+    private static final class DocumentJob {
+        final String corpus;
+        final Path path;
+        String key;
+        PersistentEmbeddingStore store;
+        boolean fromIndex;
+        int totalBatches;
+        int writtenBatches;
+
+        DocumentJob(String corpus, Path path) {
+            this.corpus = corpus;
+            this.path = path;
+        }
+    }
+
+    private record Parsed(DocumentJob job, Document document) {
+    }
+
+    private record Batch(DocumentJob job, List<String> ids, List<TextSegment> segments) {
+    }
+
+    private record EmbeddedBatch(Batch batch, List<Embedding> embeddings) {
+    }
+
+    /**
+     * Résultat de l'ingestion : un magasin par corpus et les statistiques de débit.
+     */
+    public record Result(Map<String, EmbeddingStore<TextSegment>> stores, Stats stats) {
+    }
+
+    public record Stats(int documents, int documentsFromIndex, int segments, int embeddedSegments,
+                        long elapsedMillis) {
+
+        public double segmentsPerSecond() {
+            return elapsedMillis == 0 ? segments : segments * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d documents (%d depuis l'index), %d segments dont %d embeddés, %d ms, %.1f segments/s",
+                    documents, documentsFromIndex, segments, embeddedSegments, elapsedMillis, segmentsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * EmbeddingStore persistant : les vecteurs sont gardés dans un tableau plat en mémoire
+ * et peuvent être sauvegardés dans un fichier binaire compact.
+ * <p>
+ * Format du fichier :
+ * <pre>
+ * en-tête   : MAGIC (int), VERSION (int), clé (chaîne), dimension (int), nombre (int)
+ * vecteurs  : nombre x dimension floats (largeur fixe)
+ * segments  : pour chaque vecteur, id, texte et métadonnées (clé, type, valeur)
+ * </pre>
+ * Les vecteurs sont normalisés à l'ajout et au chargement : la recherche se réduit à un produit
+ * scalaire par vecteur ({@link VectorMath#dot}), comme dans le FlatVectorEmbeddingStore.
+ * <p>
+ * Le chargement relit le fichier (pas de ré-ingestion) par une simple lecture, sans le mapper : aucun
+ * mapping ne reste ouvert sur un index que {@link #save} remplace ensuite (impossible sous Windows).
+ */
+public class PersistentEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int MAGIC = 0x52414731; // "RAG1"
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_UUID = 1;
+    private static final byte TYPE_INTEGER = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_DOUBLE = 5;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int dimension;
+    private int size;
+    private float[] vectors = new float[0];
+    private String[] ids = new String[0];
+    private TextSegment[] segments = new TextSegment[0];
+    private volatile long generation;
+
+    public PersistentEmbeddingStore() {
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (newIds.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("Les listes d'ids, d'embeddings et de segments doivent avoir la même taille");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = VectorMath.normalized(embeddings.get(i).vector());
+                if (size == 0 && dimension == 0) {
+                    dimension = vector.length;
+                } else if (vector.length != dimension) {
+                    throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + vector.length);
+                }
+                ensureCapacity(size + 1);
+                System.arraycopy(vector, 0, vectors, size * dimension, dimension);
+                ids[size] = newIds.get(i);
+                segments[size] = embedded == null ? null : embedded.get(i);
+                size++;
+            }
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        Set<String> removed = new HashSet<>(idsToRemove);
+        removeIf(i -> removed.contains(ids[i]));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        removeIf(i -> segments[i] != null && filter.test(segments[i].metadata()));
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            Arrays.fill(ids, null);
+            Arrays.fill(segments, null);
+            generation++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+        // Tas borné aux maxResults meilleurs candidats : on ne copie que les vecteurs retenus
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Comparator.comparingDouble(Candidate::score));
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (filter != null && (segments[i] == null || !filter.test(segments[i].metadata()))) {
+                    continue;
+                }
+                double score = RelevanceScore.fromCosineSimilarity(VectorMath.dot(query, vectors, i * dimension, dimension));
+                if (score >= request.minScore()) {
+                    best.add(new Candidate(i, score));
+                    if (best.size() > request.maxResults()) {
+                        best.poll();
+                    }
+                }
+            }
+            for (Candidate candidate : best) {
+                matches.add(new EmbeddingMatch<>(candidate.score(), ids[candidate.index()],
+                        embeddingAt(candidate.index()), segments[candidate.index()]));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        matches.sort(Comparator.comparingDouble((EmbeddingMatch<TextSegment> m) -> m.score()).reversed());
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Numéro de version du contenu, incrémenté à chaque ajout ou suppression : permet aux caches
+     * construits sur ce magasin de savoir qu'il a été modifié (ré-ingestion).
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Parcourt toutes les entrées du magasin (id, embedding, segment).
+     */
+    public void forEach(EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                visitor.visit(ids[i], embeddingAt(i), segments[i]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sauvegarde le contenu du magasin dans le fichier indiqué. L'écriture passe par un
+     * fichier temporaire renommé à la fin, pour ne jamais laisser un index à moitié écrit.
+     */
+    public void save(Path file, String key) {
+        lock.readLock().lock();
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, key);
+                out.writeInt(dimension);
+                out.writeInt(size);
+                for (int i = 0; i < size * dimension; i++) {
+                    out.writeFloat(vectors[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    writeString(out, ids[i]);
+                    writeSegment(out, segments[i]);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lit uniquement la clé enregistrée dans l'en-tête du fichier (null si le fichier est absent ou invalide).
+     */
+    public static String readKey(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // lecture de l'en-tête seulement
+            }
+            buffer.flip();
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            return readString(buffer);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Charge un magasin depuis un fichier créé par {@link #save(Path, String)}.
+     */
+    public static PersistentEmbeddingStore load(Path file) {
+        try {
+            // Tampon sur le heap, libéré après la copie dans les tableaux du magasin
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IllegalStateException("Fichier d'index invalide : " + file);
+            }
+            readString(buffer); // clé
+            PersistentEmbeddingStore store = new PersistentEmbeddingStore();
+            store.dimension = buffer.getInt();
+            store.size = buffer.getInt();
+            store.vectors = new float[store.size * store.dimension];
+            buffer.asFloatBuffer().get(store.vectors);
+            buffer.position(buffer.position() + store.vectors.length * Float.BYTES);
+            store.normalizeVectors(); // index écrits avant la normalisation à l'ajout
+            store.ids = new String[store.size];
+            store.segments = new TextSegment[store.size];
+            for (int i = 0; i < store.size; i++) {
+                store.ids[i] = readString(buffer);
+                store.segments[i] = readSegment(buffer);
+            }
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Embedding embeddingAt(int index) {
+        return Embedding.from(Arrays.copyOfRange(vectors, index * dimension, (index + 1) * dimension));
+    }
+
+    private void removeIf(IntPredicate predicate) {
+        lock.writeLock().lock();
+        try {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (predicate.test(i)) {
+                    continue;
+                }
+                if (kept != i) {
+                    System.arraycopy(vectors, i * dimension, vectors, kept * dimension, dimension);
+                    ids[kept] = ids[i];
+                    segments[kept] = segments[i];
+                }
+                kept++;
+            }
+            Arrays.fill(ids, kept, size, null);
+            Arrays.fill(segments, kept, size, null);
+            if (kept != size) {
+                generation++;
+            }
+            size = kept;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, Math.max(16, ids.length * 2));
+        vectors = Arrays.copyOf(vectors, newCapacity * dimension);
+        ids = Arrays.copyOf(ids, newCapacity);
+        segments = Arrays.copyOf(segments, newCapacity);
+    }
+
+    private void normalizeVectors() {
+        float[] row = new float[dimension];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(vectors, i * dimension, row, 0, dimension);
+            System.arraycopy(VectorMath.normalized(row), 0, vectors, i * dimension, dimension);
+        }
+    }
+
+    // ==== Sérialisation des chaînes et des métadonnées (partagée avec le protocole des shards distants) ====
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Longueur de chaîne invalide : " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeSegment(DataOutputStream out, TextSegment segment) throws IOException {
+        if (segment == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        writeString(out, segment.text());
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    static TextSegment readSegment(ByteBuffer buffer) {
+        if (buffer.get() == 0) {
+            return null;
+        }
+        String text = readString(buffer);
+        int entries = buffer.getInt();
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            metadata.put(readString(buffer), readValue(buffer));
+        }
+        return TextSegment.from(text, Metadata.from(metadata));
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof UUID uuid) {
+            out.writeByte(TYPE_UUID);
+            writeString(out, uuid.toString());
+        } else if (value instanceof Integer i) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(l);
+        } else if (value instanceof Float f) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(f);
+        } else if (value instanceof Double d) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(d);
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeString(out, String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte type = buffer.get();
+        return switch (type) {
+            case TYPE_UUID -> UUID.fromString(readString(buffer));
+            case TYPE_INTEGER -> buffer.getInt();
+            case TYPE_LONG -> buffer.getLong();
+            case TYPE_FLOAT -> buffer.getFloat();
+            case TYPE_DOUBLE -> buffer.getDouble();
+            default -> readString(buffer);
+        };
+    }
+
+    private record Candidate(int index, double score) {
+    }
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(String id, Embedding embedding, TextSegment segment);
+    }
+}
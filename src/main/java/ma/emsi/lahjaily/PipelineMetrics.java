@@ -0,0 +1,291 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.chat.listener.ChatModelErrorContext;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.listener.ChatModelRequestContext;
+import dev.langchain4j.model.chat.listener.ChatModelResponseContext;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Minuteries et compteurs du pipeline RAG, alimentés par des décorateurs (modèle d'embedding, magasin,
+ * retriever, routeur, injecteur de contenu) et par un {@link ChatModelListener} pour l'appel au LLM.
+ * <p>
+ * Chaque mesure coûte deux {@code System.nanoTime()} et quelques incréments atomiques : rien n'est
+ * journalisé sur le chemin critique. Les valeurs se lisent avec {@link #report()} (console) ou
+ * {@link #toPrometheus()} (format texte Prometheus, servi par ChatServer sur {@code /metrics}).
+ */
+public class PipelineMetrics {
+
+    public static final String QUERY_EMBEDDING = "embedding_question";
+    public static final String VECTOR_SEARCH = "recherche_vectorielle";
+    public static final String ROUTING = "routage";
+    public static final String WEB_RETRIEVAL = "recuperation_web";
+    public static final String PROMPT_ASSEMBLY = "assemblage_prompt";
+    public static final String LLM_CALL = "appel_llm";
+    public static final String TOKENS_IN = "tokens_entree";
+    public static final String TOKENS_OUT = "tokens_sortie";
+    public static final String LLM_ERRORS = "erreurs_llm";
+    public static final String ANSWER_CACHE_HITS = "cache_reponses_succes";
+    public static final String ANSWER_CACHE_MISSES = "cache_reponses_echecs";
+    public static final String CONTEXT_TOKENS = "tokens_contexte";
+    public static final String CONTEXT_TOKENS_SAVED = "tokens_contexte_economises";
+
+    private static final String START_ATTRIBUTE = PipelineMetrics.class.getName() + ".start";
+
+    // Les décorateurs gardent leur histogramme : ces maps ne sont lues qu'à la création et à l'export
+    private final Map<String, LatencyHistogram> timers = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, LongAdder> counters = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // ==== Décorateurs ====
+
+    public EmbeddingModel timed(String name, EmbeddingModel delegate) {
+        LatencyHistogram timer = timer(name);
+        return new EmbeddingModel() {
+            @Override
+            public Response<Embedding> embed(String text) {
+                return time(timer, () -> delegate.embed(text));
+            }
+
+            @Override
+            public Response<Embedding> embed(TextSegment textSegment) {
+                return time(timer, () -> delegate.embed(textSegment));
+            }
+
+            @Override
+            public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+                return time(timer, () -> delegate.embedAll(textSegments));
+            }
+
+            @Override
+            public int dimension() {
+                return delegate.dimension();
+            }
+        };
+    }
+
+    /**
+     * Seule la recherche est mesurée ; les écritures passent directement au magasin.
+     */
+    public EmbeddingStore<TextSegment> timed(String name, EmbeddingStore<TextSegment> delegate) {
+        return new TimedEmbeddingStore(timer(name), delegate);
+    }
+
+    public ContentRetriever timedRetriever(String name, ContentRetriever delegate) {
+        LatencyHistogram timer = timer(name);
+        return new ContentRetriever() {
+            @Override
+            public List<Content> retrieve(Query query) {
+                return time(timer, () -> delegate.retrieve(query));
+            }
+        };
+    }
+
+    public QueryRouter timedRouter(String name, QueryRouter delegate) {
+        LatencyHistogram timer = timer(name);
+        return new QueryRouter() {
+            @Override
+            public Collection<ContentRetriever> route(Query query) {
+                return time(timer, () -> delegate.route(query));
+            }
+        };
+    }
+
+    public ContentInjector timed(String name, ContentInjector delegate) {
+        LatencyHistogram timer = timer(name);
+        return new ContentInjector() {
+            @Override
+            public ChatMessage inject(List<Content> contents, ChatMessage chatMessage) {
+                return time(timer, () -> delegate.inject(contents, chatMessage));
+            }
+        };
+    }
+
+    /**
+     * Listener à passer au builder du ChatModel (ou du StreamingChatModel) : durée de l'appel
+     * (jusqu'à la réponse complète en streaming), tokens en entrée et en sortie, erreurs.
+     */
+    public ChatModelListener chatModelListener() {
+        LatencyHistogram llmCall = timer(LLM_CALL);
+        LongAdder tokensIn = counter(TOKENS_IN);
+        LongAdder tokensOut = counter(TOKENS_OUT);
+        LongAdder errors = counter(LLM_ERRORS);
+        return new ChatModelListener() {
+            @Override
+            public void onRequest(ChatModelRequestContext requestContext) {
+                requestContext.attributes().put(START_ATTRIBUTE, System.nanoTime());
+            }
+
+            @Override
+            public void onResponse(ChatModelResponseContext responseContext) {
+                if (responseContext.attributes().get(START_ATTRIBUTE) instanceof Long start) {
+                    llmCall.record(System.nanoTime() - start);
+                }
+                TokenUsage tokenUsage = responseContext.chatResponse().tokenUsage();
+                if (tokenUsage != null) {
+                    tokensIn.add(tokenUsage.inputTokenCount() == null ? 0 : tokenUsage.inputTokenCount());
+                    tokensOut.add(tokenUsage.outputTokenCount() == null ? 0 : tokenUsage.outputTokenCount());
+                }
+            }
+
+            @Override
+            public void onError(ChatModelErrorContext errorContext) {
+                errors.increment();
+            }
+        };
+    }
+
+    private static <T> T time(LatencyHistogram timer, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            timer.record(System.nanoTime() - start);
+        }
+    }
+
+    // ==== Export ====
+
+    /**
+     * Tableau lisible des minuteries (percentiles en ms) et des compteurs.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(
+                "  étape                       nombre   p50 (ms)   p95 (ms)   p99 (ms)   max (ms)\n");
+        for (Map.Entry<String, LatencyHistogram> timer : snapshot(timers).entrySet()) {
+            LatencyHistogram.Snapshot s = timer.getValue().snapshot();
+            report.append(String.format(Locale.ROOT, "  %-24s %9d %10.1f %10.1f %10.1f %10.1f%n",
+                    timer.getKey(), s.count(), s.p50Millis(), s.p95Millis(), s.p99Millis(), s.maxMillis()));
+        }
+        for (Map.Entry<String, LongAdder> counter : snapshot(counters).entrySet()) {
+            report.append(String.format(Locale.ROOT, "  %-24s %9d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Format texte Prometheus : une métrique "summary" (quantiles en secondes) par minuterie,
+     * un "counter" par compteur, préfixés par {@code rag_}.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> timer : snapshot(timers).entrySet()) {
+            String metric = "rag_" + timer.getKey() + "_seconds";
+            LatencyHistogram histogram = timer.getValue();
+            text.append("# TYPE ").append(metric).append(" summary\n");
+            for (double quantile : new double[]{0.5, 0.95, 0.99}) {
+                text.append(String.format(Locale.ROOT, "%s{quantile=\"%s\"} %.6f%n",
+                        metric, quantile, histogram.percentileNanos(quantile * 100) / 1e9));
+            }
+            text.append(String.format(Locale.ROOT, "%s_sum %.6f%n", metric, histogram.totalNanos() / 1e9));
+            text.append(metric).append("_count ").append(histogram.count()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> counter : snapshot(counters).entrySet()) {
+            String metric = "rag_" + counter.getKey() + "_total";
+            text.append("# TYPE ").append(metric).append(" counter\n");
+            text.append(metric).append(' ').append(counter.getValue().sum()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static <V> Map<String, V> snapshot(Map<String, V> map) {
+        synchronized (map) {
+            return new LinkedHashMap<>(map);
+        }
+    }
+
+    private static final class TimedEmbeddingStore implements EmbeddingStore<TextSegment> {
+        private final LatencyHistogram timer;
+        private final EmbeddingStore<TextSegment> delegate;
+
+        TimedEmbeddingStore(LatencyHistogram timer, EmbeddingStore<TextSegment> delegate) {
+            this.timer = timer;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+            return time(timer, () -> delegate.search(request));
+        }
+
+        @Override
+        public String add(Embedding embedding) {
+            return delegate.add(embedding);
+        }
+
+        @Override
+        public void add(String id, Embedding embedding) {
+            delegate.add(id, embedding);
+        }
+
+        @Override
+        public String add(Embedding embedding, TextSegment textSegment) {
+            return delegate.add(embedding, textSegment);
+        }
+
+        @Override
+        public List<String> addAll(List<Embedding> embeddings) {
+            return delegate.addAll(embeddings);
+        }
+
+        @Override
+        public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+            return delegate.addAll(embeddings, textSegments);
+        }
+
+        @Override
+        public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+            delegate.addAll(ids, embeddings, textSegments);
+        }
+
+        @Override
+        public void remove(String id) {
+            delegate.remove(id);
+        }
+
+        @Override
+        public void removeAll(Collection<String> ids) {
+            delegate.removeAll(ids);
+        }
+
+        @Override
+        public void removeAll(Filter filter) {
+            delegate.removeAll(filter);
+        }
+
+        @Override
+        public void removeAll() {
+            delegate.removeAll();
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * EmbeddingStore dont les vecteurs sont quantifiés en mémoire :
+ * <ul>
+ *     <li>{@link Mode#INT8} : quantification scalaire, 1 octet par dimension + 1 facteur d'échelle
+ *     par vecteur (4x moins que des floats) ;</li>
+ *     <li>{@link Mode#PRODUCT} : quantification par produit, le vecteur est découpé en sous-espaces
+ *     et chaque morceau est remplacé par le numéro (1 octet) du centroïde le plus proche
+ *     (384 floats → 96 octets). Les centroïdes sont appris par k-means sur les premiers vecteurs.</li>
+ * </ul>
+ * La recherche parcourt les codes compacts, garde {@code maxResults * rerankFactor} candidats,
+ * puis les re-classe avec les vecteurs en pleine précision. Ceux-ci sont dans un fichier
+ * temporaire (hors heap), lu seulement pour ces quelques candidats.
+ * <p>
+ * Magasin autonome : les index de l'application restent des {@link PersistentEmbeddingStore} ;
+ * celui-ci sert aux comparaisons du module benchmarks (QuantizationReport).
+ */
+public class QuantizedEmbeddingStore implements EmbeddingStore<TextSegment>, AutoCloseable {
+
+    public enum Mode {
+        INT8, PRODUCT
+    }
+
+    private static final int VECTORS_PER_PAGE = 8192;
+    private static final int CENTROIDS = 256;
+
+    private final Mode mode;
+    private final int rerankFactor;
+    private final int subspaces;
+    private final int trainingSize;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final SegmentArena rows = new SegmentArena();
+    private final BitSet deleted = new BitSet();
+    private FileVectors fullPrecision;
+    private int dimension;
+    private int size;
+    private int deletedCount;
+
+    // INT8 : codes (pages) et facteur d'échelle par vecteur
+    private byte[][] codePages = new byte[0][];
+    private float[] scales = new float[0];
+
+    // PRODUCT : dictionnaires [sous-espace][centroïde][composante], appris au premier trainingSize vecteurs
+    private float[][][] codebooks;
+    private int subDimension;
+    private boolean training;
+    // Incrémenté par removeAll() : les lignes encodées hors verrou ne correspondent plus aux vecteurs
+    private long resets;
+
+    /**
+     * Réglages par défaut : la quantification par produit est plus grossière que l'INT8,
+     * elle a besoin de beaucoup plus de candidats pour retrouver le même top-k.
+     */
+    public QuantizedEmbeddingStore(Mode mode) {
+        this(mode, mode == Mode.INT8 ? 4 : 64, 96, 4096);
+    }
+
+    /**
+     * @param rerankFactor nombre de candidats re-classés en pleine précision = maxResults * rerankFactor
+     *                     (0 : pas de re-classement, les scores approximatifs sont retournés)
+     * @param subspaces    nombre de sous-espaces pour la quantification par produit
+     * @param trainingSize nombre de vecteurs utilisés pour apprendre les centroïdes
+     */
+    public QuantizedEmbeddingStore(Mode mode, int rerankFactor, int subspaces, int trainingSize) {
+        this.mode = mode;
+        this.rerankFactor = rerankFactor;
+        this.subspaces = subspaces;
+        this.trainingSize = trainingSize;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> newIds, List<Embedding> embeddings, List<TextSegment> embedded) {
+        float[][] sample = null;
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < embeddings.size(); i++) {
+                float[] vector = VectorMath.normalized(embeddings.get(i).vector());
+                if (fullPrecision == null) {
+                    dimension = vector.length;
+                    subDimension = dimension / largestDivisorAtMost(dimension, subspaces);
+                    fullPrecision = new FileVectors(dimension);
+                } else if (vector.length != dimension) {
+                    throw new IllegalArgumentException("Dimension attendue " + dimension + ", reçue " + vector.length);
+                }
+                ensureCapacity(size + 1);
+                fullPrecision.write(size, vector);
+                rows.add(newIds.get(i), embedded == null ? null : embedded.get(i));
+                encode(size, vector);
+                size++;
+            }
+            if (mode == Mode.PRODUCT && codebooks == null && !training && size >= trainingSize) {
+                // Copie de l'échantillon sous le verrou, l'apprentissage se fait sans lui
+                training = true;
+                sample = new float[trainingSize][dimension];
+                for (int i = 0; i < trainingSize; i++) {
+                    fullPrecision.read(i, sample[i]);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (sample != null) {
+            trainProductQuantizer(sample);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        Set<String> toRemove = new HashSet<>(ids);
+        lock.writeLock().lock();
+        try {
+            for (int row = deleted.nextClearBit(0); row < size; row = deleted.nextClearBit(row + 1)) {
+                if (toRemove.contains(rows.id(row))) {
+                    deleted.set(row);
+                    deletedCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int row = deleted.nextClearBit(0); row < size; row = deleted.nextClearBit(row + 1)) {
+                if (rows.hasSegment(row) && filter.test(rows.metadata(row))) {
+                    deleted.set(row);
+                    deletedCount++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            // Le fichier mappé et les centroïdes sont conservés : les lignes seront réécrites
+            rows.clear();
+            resets++;
+            size = 0;
+            deletedCount = 0;
+            deleted.clear();
+            codePages = new byte[0][];
+            scales = new float[0];
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = VectorMath.normalized(request.queryEmbedding().vector());
+        float minCosine = (float) (2 * request.minScore() - 1);
+        Filter filter = request.filter();
+        int candidates = rerankFactor > 0 ? request.maxResults() * rerankFactor : request.maxResults();
+
+        lock.readLock().lock();
+        try {
+            // 1. Parcours des codes compacts (scores approximatifs)
+            float[][] table = mode == Mode.PRODUCT && codebooks != null ? distanceTable(query) : null;
+            float[] buffer = new float[dimension];
+            FlatVectorEmbeddingStore.TopK approximate = new FlatVectorEmbeddingStore.TopK(candidates);
+            for (int row = 0; row < size; row++) {
+                if (deletedCount > 0 && deleted.get(row)) {
+                    continue;
+                }
+                float score = approximateScore(query, table, buffer, row);
+                if (!approximate.accepts(score) || (rerankFactor == 0 && score < minCosine)) {
+                    continue;
+                }
+                if (filter != null && (!rows.hasSegment(row) || !filter.test(rows.metadata(row)))) {
+                    continue;
+                }
+                approximate.add(row, score);
+            }
+
+            // 2. Re-classement des candidats en pleine précision
+            FlatVectorEmbeddingStore.TopK top = new FlatVectorEmbeddingStore.TopK(request.maxResults());
+            for (int i = 0; i < approximate.size(); i++) {
+                int row = approximate.rows[i];
+                float score = approximate.scores[i];
+                if (rerankFactor > 0) {
+                    fullPrecision.read(row, buffer);
+                    score = VectorMath.dot(query, buffer, 0, dimension);
+                }
+                if (score >= minCosine && top.accepts(score)) {
+                    top.add(row, score);
+                }
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(top.size());
+            for (int i : top.sortedIndexes()) {
+                int row = top.rows[i];
+                float[] vector = new float[dimension];
+                fullPrecision.read(row, vector);
+                matches.add(new EmbeddingMatch<>(RelevanceScore.fromCosineSimilarity(top.scores[i]),
+                        rows.id(row), Embedding.from(vector), rows.segment(row)));
+            }
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Libère le fichier temporaire des vecteurs en pleine précision.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (fullPrecision != null) {
+                fullPrecision.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ==== Quantification ====
+
+    private void encode(int row, float[] vector) {
+        if (mode == Mode.INT8) {
+            float max = 0;
+            for (float value : vector) {
+                max = Math.max(max, Math.abs(value));
+            }
+            float scale = max == 0 ? 1 : max / 127f;
+            byte[] page = codePages[row / VECTORS_PER_PAGE];
+            int offset = (row % VECTORS_PER_PAGE) * dimension;
+            for (int d = 0; d < dimension; d++) {
+                page[offset + d] = (byte) Math.round(vector[d] / scale);
+            }
+            scales[row] = scale;
+        } else if (codebooks != null) {
+            encodeProduct(codebooks, vector, codePages[row / VECTORS_PER_PAGE], (row % VECTORS_PER_PAGE) * codebooks.length);
+        }
+        // PRODUCT non entraîné : le vecteur n'est que dans le fichier, il sera encodé à l'entraînement
+    }
+
+    private float approximateScore(float[] query, float[][] table, float[] buffer, int row) {
+        if (mode == Mode.INT8) {
+            byte[] page = codePages[row / VECTORS_PER_PAGE];
+            return VectorMath.dot(query, page, (row % VECTORS_PER_PAGE) * dimension, dimension) * scales[row];
+        }
+        if (table == null) {
+            // Quantificateur pas encore entraîné (peu de vecteurs) : score exact
+            fullPrecision.read(row, buffer);
+            return VectorMath.dot(query, buffer, 0, dimension);
+        }
+        byte[] page = codePages[row / VECTORS_PER_PAGE];
+        int offset = (row % VECTORS_PER_PAGE) * table.length;
+        float score = 0;
+        for (int s = 0; s < table.length; s++) {
+            score += table[s][page[offset + s] & 0xFF];
+        }
+        return score;
+    }
+
+    /**
+     * Produits scalaires entre chaque morceau de la question et chaque centroïde du sous-espace.
+     */
+    private float[][] distanceTable(float[] query) {
+        float[][] table = new float[codebooks.length][];
+        for (int s = 0; s < codebooks.length; s++) {
+            table[s] = new float[codebooks[s].length];
+            for (int c = 0; c < codebooks[s].length; c++) {
+                table[s][c] = VectorMath.dot(codebooks[s][c], query, s * subDimension, subDimension);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Apprend les centroïdes (k-means, 8 itérations) de chaque sous-espace puis encode tous les vecteurs.
+     * <p>
+     * Le k-means et l'encodage se font hors du verrou d'écriture : les recherches continuent pendant
+     * ce temps avec les scores exacts. Seule l'installation des dictionnaires et des codes, ainsi que
+     * l'encodage des vecteurs ajoutés entre-temps, se fait sous le verrou.
+     */
+    private void trainProductQuantizer(float[][] sample) {
+        try {
+            float[][][] books = kMeans(sample);
+
+            // Encodage des lignes existantes, page par page sous le verrou de lecture
+            long resetsBefore;
+            int encoded;
+            List<byte[]> pages = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                resetsBefore = resets;
+                encoded = size;
+            } finally {
+                lock.readLock().unlock();
+            }
+            float[] vector = new float[dimension];
+            for (int from = 0; from < encoded; from += VECTORS_PER_PAGE) {
+                byte[] page = new byte[VECTORS_PER_PAGE * books.length];
+                lock.readLock().lock();
+                try {
+                    if (resets != resetsBefore) {
+                        break;
+                    }
+                    for (int row = from; row < Math.min(encoded, from + VECTORS_PER_PAGE); row++) {
+                        fullPrecision.read(row, vector);
+                        encodeProduct(books, vector, page, (row - from) * books.length);
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                pages.add(page);
+            }
+
+            lock.writeLock().lock();
+            try {
+                codebooks = books;
+                // Magasin vidé pendant l'apprentissage : les codes calculés ne servent plus
+                int start = resets == resetsBefore ? Math.min(encoded, size) : 0;
+                for (int row = 0; row < start; row++) {
+                    byte[] page = pages.get(row / VECTORS_PER_PAGE);
+                    int offset = (row % VECTORS_PER_PAGE) * books.length;
+                    System.arraycopy(page, offset, codePages[row / VECTORS_PER_PAGE], offset, books.length);
+                }
+                for (int row = start; row < size; row++) {
+                    fullPrecision.read(row, vector);
+                    encode(row, vector);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            training = false;
+            lock.writeLock().unlock();
+        }
+    }
+
+    private float[][][] kMeans(float[][] sample) {
+        int sampleSize = sample.length;
+        int subspaceCount = dimension / subDimension;
+        int k = Math.min(CENTROIDS, sampleSize);
+        Random random = new Random(42);
+        float[][][] books = new float[subspaceCount][][];
+        for (int s = 0; s < subspaceCount; s++) {
+            int from = s * subDimension;
+            float[][] centroids = new float[k][];
+            for (int c = 0; c < k; c++) {
+                centroids[c] = Arrays.copyOfRange(sample[random.nextInt(sampleSize)], from, from + subDimension);
+            }
+            int[] assignment = new int[sampleSize];
+            for (int iteration = 0; iteration < 8; iteration++) {
+                float[][] sums = new float[k][subDimension];
+                int[] counts = new int[k];
+                for (int i = 0; i < sampleSize; i++) {
+                    assignment[i] = nearestCentroid(centroids, sample[i], from);
+                    counts[assignment[i]]++;
+                    for (int d = 0; d < subDimension; d++) {
+                        sums[assignment[i]][d] += sample[i][from + d];
+                    }
+                }
+                for (int c = 0; c < k; c++) {
+                    if (counts[c] == 0) {
+                        // Centroïde vide : on le replace sur un vecteur tiré au hasard
+                        centroids[c] = Arrays.copyOfRange(sample[random.nextInt(sampleSize)], from, from + subDimension);
+                        continue;
+                    }
+                    for (int d = 0; d < subDimension; d++) {
+                        centroids[c][d] = sums[c][d] / counts[c];
+                    }
+                }
+            }
+            books[s] = centroids;
+        }
+        return books;
+    }
+
+    private void encodeProduct(float[][][] books, float[] vector, byte[] page, int offset) {
+        for (int s = 0; s < books.length; s++) {
+            page[offset + s] = (byte) nearestCentroid(books[s], vector, s * subDimension);
+        }
+    }
+
+    private int nearestCentroid(float[][] centroids, float[] vector, int from) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < centroids.length; c++) {
+            float distance = 0;
+            for (int d = 0; d < centroids[c].length; d++) {
+                float diff = vector[from + d] - centroids[c][d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > scales.length) {
+            scales = Arrays.copyOf(scales, Math.max(capacity, Math.max(1024, scales.length * 2)));
+        }
+        int pages = (capacity + VECTORS_PER_PAGE - 1) / VECTORS_PER_PAGE;
+        if (pages > codePages.length) {
+            int bytesPerVector = mode == Mode.INT8 ? dimension : dimension / subDimension;
+            codePages = Arrays.copyOf(codePages, pages);
+            codePages[pages - 1] = new byte[VECTORS_PER_PAGE * bytesPerVector];
+        }
+    }
+
+    private static int largestDivisorAtMost(int value, int max) {
+        for (int divisor = Math.min(value, max); divisor > 1; divisor--) {
+            if (value % divisor == 0) {
+                return divisor;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Vecteurs en pleine précision dans un fichier temporaire, lus et écrits par positions avec le
+     * FileChannel (cache de pages du système, hors heap). Pas de mapping : aucune page ne reste
+     * attachée au fichier quand il est supprimé à la fermeture.
+     */
+    private static final class FileVectors implements AutoCloseable {
+        private final Path file;
+        private final FileChannel channel;
+        private final int dimension;
+
+        FileVectors(int dimension) {
+            this.dimension = dimension;
+            try {
+                file = Files.createTempFile("rag-vectors", ".f32");
+                file.toFile().deleteOnExit();
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void write(int row, float[] vector) {
+            ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+            buffer.asFloatBuffer().put(vector);
+            long position = (long) row * dimension * Float.BYTES;
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void read(int row, float[] target) {
+            ByteBuffer buffer = ByteBuffer.allocate(dimension * Float.BYTES);
+            long position = (long) row * dimension * Float.BYTES;
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Fin de fichier inattendue à la ligne " + row);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.flip().asFloatBuffer().get(target, 0, dimension);
+        }
+
+        @Override
+        public void close() {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
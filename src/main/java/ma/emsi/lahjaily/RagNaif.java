@@ -1,32 +1,21 @@
 package ma.emsi.lahjaily;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,18 +37,25 @@ public class RagNaif {
         // Configure le logger sous-jacent (java.util.logging)
         Logger packageLogger = Logger.getLogger("dev.langchain4j");
         packageLogger.setLevel(Level.FINE); // Ajuster niveau
-        // Ajouter un handler pour la console pour faire afficher les logs
-        ConsoleHandler handler = new ConsoleHandler();
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(Level.FINE);
+        // Écriture sur un thread dédié, et seulement pour une partie des requêtes/réponses détaillées
+        // (-Drag.log.sample=1 pour tout garder) : le journal ne ralentit plus les appels
+        AsyncSampledHandler handler = new AsyncSampledHandler(console,
+                Double.parseDouble(System.getProperty("rag.log.sample", "0.1")));
         handler.setLevel(Level.FINE);
         packageLogger.addHandler(handler);
     }
 
     public static void main(String[] args) {
+        // Chargements lents (modèle ONNX, Tika) lancés en premier, en arrière-plan
+        RagRuntime runtime = RagRuntime.start();
+
         // ==== 1. APPEL DU CONFIGURATEUR DE LOGGER ====
         configureLogger();
 
-        // 0. Créer le ChatModel
-        ChatModel model = GoogleAiGeminiChatModel.builder()
+        // 0. Créer le ChatModel (en streaming : la réponse s'affiche au fil de l'eau)
+        StreamingChatModel streamingModel = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(System.getenv("GEMINI_KEY"))
                 .modelName("gemini-2.5-flash")
                 .logRequestsAndResponses(true)
@@ -67,43 +63,56 @@ public class RagNaif {
                 .build();
 
         // === PHASE 1: ENREGISTREMENT (Ingestion) ===
-        System.out.println("Phase 1 : Démarrage de l'ingestion...");
-        Path documentPath = getPath("rag.pdf"); // Utilisation de votre nom de fichier
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel(); // Utilisation de votre modèle ONNX
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = embeddingsResponse.content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("Phase 1 : Ingestion terminée. " + segments.size() + " segments ajoutés.");
+        // Modèle ONNX, parser Tika et index de rag.pdf se chargent en arrière-plan, en parallèle :
+        // l'invite s'affiche tout de suite (voir RagRuntime)
+        System.out.println("Phase 1 : Démarrage de l'ingestion (en arrière-plan)...");
+        EmbeddingModel embeddingModel = runtime.embeddingModel(); // Utilisation de votre modèle ONNX
+        // Index persistant : rechargé depuis le disque si rag.pdf n'a pas changé
+        CompletableFuture<PersistentEmbeddingStore> embeddingStore = runtime.ingest(getPath("rag.pdf"));
 
         // === PHASE 2: UTILISATION (Récupération) ===
 
-        // 1. Création du ContentRetriever
-        ContentRetriever contentRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .minScore(0.5)
-                .build();
+        // Cache des embeddings de questions : une question répétée ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel);
+
+        // 1. Création du ContentRetriever (dès que l'index est prêt)
+        // Recherche hybride : vectorielle + BM25 sur les mêmes segments, fusionnées par rang,
+        // pour que les sigles et termes exacts de la question remontent dans les 2 résultats
+        CompletableFuture<ContentRetriever> contentRetriever = embeddingStore.thenApply(store ->
+                new HybridContentRetriever(store, queryEmbeddingModel, Bm25Index.of(store), 2, 0.5));
 
         // 2. Ajout de la mémoire
-        ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
+        // La fenêtre n'est plus la seule limite : le magasin retire le contexte RAG des anciens tours
+        // et résume les échanges les plus anciens au-delà de ~2000 tokens
+        CompactChatMemoryStore memoryStore = new CompactChatMemoryStore();
+        ChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .maxMessages(100)
+                .chatMemoryStore(memoryStore)
+                .build();
+
+        // 3. Cache sémantique des réponses : une question proche d'une question déjà posée
+        // (-Drag.cache.similarity, 0.95 par défaut) avec les mêmes segments retrouvés ne rappelle pas Gemini
+        SemanticAnswerCache answerCache = new SemanticAnswerCache(queryEmbeddingModel, 1_000,
+                Double.parseDouble(System.getProperty("rag.cache.similarity", "0.95")),
+                () -> RagRuntime.readyNow(embeddingStore) != null ? embeddingStore.join().generation() : -1);
 
-        // 3. Création de l'assistant
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
+        // 4. Création de l'assistant
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(answerCache.streaming(streamingModel))
                 .chatMemory(chatMemory)
-                .contentRetriever(contentRetriever) // Connexion du RAG
+                // Tant que l'index n'est pas prêt, la question part sans RAG (-Drag.startup.wait=true pour attendre)
+                .retrievalAugmentor(runtime.augmentorWhenReady("rag.pdf", contentRetriever.thenApply(retriever ->
+                        DefaultRetrievalAugmentor.builder()
+                                .contentRetriever(retriever) // Connexion du RAG
+                                .contentInjector(answerCache.injector(DefaultContentInjector.builder().build()))
+                                .build())))
                 .build();
 
-        // 4. Boucle de chat interactive (REMPLACEMENT DE LA QUESTION UNIQUE)
+        // 5. Boucle de chat interactive (REMPLACEMENT DE LA QUESTION UNIQUE)
         System.out.println("\n==================================================");
         System.out.println("Bonjour ! Posez vos questions sur le document RAG.");
         System.out.println("Tapez 'stop' pour quitter.");
+        runtime.promptReady();
 
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
@@ -112,11 +121,16 @@ public class RagNaif {
                 if (question.equalsIgnoreCase("stop")) {
                     break;
                 }
-                String reponse = assistant.chat(question);
-                System.out.println("Assistant : " + reponse);
+                long debut = System.nanoTime();
+                StreamingConsole.print(assistant.chat(question), debut);
+                runtime.answered();
             }
         }
 
         System.out.println("\nProgramme terminé.");
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+        System.out.println("Mémoire de conversation : " + memoryStore.stats());
+        System.out.println("Cache des réponses : " + answerCache.stats());
+        System.out.println(runtime.report());
     }
 }
\ No newline at end of file
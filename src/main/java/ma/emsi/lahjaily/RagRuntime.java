@@ -0,0 +1,350 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.DocumentParser;
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.AugmentationResult;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Démarrage partagé des programmes RAG : ce qui est lent à initialiser est chargé une seule fois par JVM,
+ * en arrière-plan, pendant que l'invite s'affiche.
+ * <ul>
+ *   <li>Le modèle ONNX AllMiniLmL6V2 (session ONNX + tokenizer, ~2 s) est chargé sur un thread dédié puis
+ *   préchauffé par quelques embeddings : la première vraie question ne paie ni l'initialisation native
+ *   ni la compilation JIT du chemin d'inférence. {@link #embeddingModel()} est utilisable tout de suite
+ *   et n'attend le chargement qu'au premier appel.</li>
+ *   <li>Le parser Tika ({@link #tikaParser()}) est créé une fois et partagé par DocumentIngestor,
+ *   ParallelIngestionEngine et StreamingPdfIngestor, au lieu d'un AutoDetectParser par document. Il n'est
+ *   créé qu'au premier document à parser, sur le thread d'ingestion : sa configuration coûte ~2 s de CPU,
+ *   inutiles quand les index sont à jour sur disque et prises au chargement du modèle.</li>
+ *   <li>{@link #ingest(Path)} recharge ou construit l'index en parallèle du chargement du modèle :
+ *   un index à jour sur disque n'a pas besoin du modèle pour être relu.</li>
+ *   <li>{@link #augmentorWhenReady} et {@link #retrieverWhenReady} enveloppent ce qui est construit une fois
+ *   l'index prêt. Tant qu'il ne l'est pas, la question part au LLM sans les documents (par défaut), ou attend
+ *   l'index avec {@code -Drag.startup.wait=true}.</li>
+ * </ul>
+ * Chaque étape est datée depuis le lancement de la JVM, jusqu'à la première réponse ({@link #report()}).
+ * Le chargement des classes (~1 s au premier lancement) peut encore être réduit avec une archive CDS :
+ * {@code -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=.rag-index/app.jsa}.
+ */
+public final class RagRuntime {
+
+    // Phrases de préchauffage : longueurs variées pour couvrir les tailles de séquence usuelles
+    private static final List<String> WARM_UP_SENTENCES = List.of(
+            "Qu'est-ce que le RAG ?",
+            "Comment un LLM utilise-t-il les documents récupérés pour répondre à une question ?",
+            "Quel est le rôle d'une banque centrale dans la fixation des taux d'intérêt ?",
+            "Bonjour",
+            "Retrieval-Augmented Generation combines a retriever with a generator to ground answers in documents.",
+            "Les embeddings représentent le sens d'un texte par un vecteur de nombres réels.");
+    private static final int WARM_UP_ROUNDS = 2;
+
+    private static RagRuntime instance;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("rag-demarrage-", 0).daemon().factory());
+    private final CompletableFuture<EmbeddingModel> model;
+    private final EmbeddingModel lazyModel;
+    private final boolean waitForIndex = Boolean.getBoolean("rag.startup.wait");
+    private final List<Milestone> milestones = new ArrayList<>();
+    private final AtomicBoolean answered = new AtomicBoolean();
+    private final LongAdder queriesWithoutIndex = new LongAdder();
+    // Sources dont la construction a échoué (échec déjà signalé)
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Runtime de la JVM ; le premier appel lance les chargements en arrière-plan et rend la main aussitôt.
+     */
+    public static synchronized RagRuntime start() {
+        if (instance == null) {
+            instance = new RagRuntime();
+        }
+        return instance;
+    }
+
+    private RagRuntime() {
+        milestone("démarrage du runtime");
+        model = CompletableFuture.supplyAsync(() -> {
+            EmbeddingModel loaded = new AllMiniLmL6V2EmbeddingModel();
+            milestone("modèle d'embedding chargé");
+            warmUp(loaded);
+            milestone("modèle d'embedding préchauffé");
+            return loaded;
+        }, executor);
+        lazyModel = new LazyEmbeddingModel(model);
+    }
+
+    /**
+     * Modèle d'embedding partagé. Les appels attendent la fin du chargement (et du préchauffage) ;
+     * l'index et le cache de vecteurs restent identifiés par la classe du vrai modèle.
+     */
+    public EmbeddingModel embeddingModel() {
+        return lazyModel;
+    }
+
+    /**
+     * Parser Tika partagé (thread-safe) : sa configuration et la détection des formats ne sont chargées
+     * qu'une fois, au premier appel. Utilisable sans démarrer le runtime.
+     */
+    public static Parser tikaParser() {
+        return Tika.PARSER;
+    }
+
+    /**
+     * DocumentParser langchain4j adossé au parser Tika partagé.
+     */
+    public static DocumentParser documentParser() {
+        return Tika.DOCUMENT_PARSER;
+    }
+
+    /**
+     * Index du document (voir DocumentIngestor), rechargé ou construit en arrière-plan. Le futur n'est
+     * terminé qu'une fois le modèle chargé et une première recherche faite : une question posée
+     * ensuite ne rencontre plus de chargement.
+     */
+    public CompletableFuture<PersistentEmbeddingStore> ingest(Path documentPath) {
+        return CompletableFuture.supplyAsync(() -> DocumentIngestor.ingest(documentPath, lazyModel), executor)
+                .thenCombine(model, (store, loaded) -> {
+                    warmUp(store, loaded);
+                    milestone("index '" + documentPath.getFileName() + "' prêt");
+                    return store;
+                });
+    }
+
+    /**
+     * Ingestion de plusieurs corpus avec le ParallelIngestionEngine, en arrière-plan.
+     */
+    public CompletableFuture<ParallelIngestionEngine.Result> ingest(Map<String, List<Path>> corpora) {
+        return CompletableFuture.supplyAsync(() -> new ParallelIngestionEngine(lazyModel).ingest(corpora), executor)
+                .thenCombine(model, (result, loaded) -> {
+                    result.stores().values().forEach(store -> {
+                        if (store instanceof PersistentEmbeddingStore persistent) {
+                            warmUp(persistent, loaded);
+                        }
+                    });
+                    milestone("index " + result.stores().keySet() + " prêts");
+                    return result;
+                });
+    }
+
+    /**
+     * RetrievalAugmentor utilisable dès maintenant : délègue à {@code augmentor} quand il est construit ;
+     * avant, répond sans RAG (le message part tel quel au LLM) ou attend, selon {@code -Drag.startup.wait}.
+     * Convient quand tout le pipeline dépend de l'index ou du modèle (routage par embeddings, cache des réponses).
+     *
+     * @param name nom affiché dans le message d'attente (par exemple le document indexé)
+     */
+    public RetrievalAugmentor augmentorWhenReady(String name,
+                                                 CompletableFuture<? extends RetrievalAugmentor> augmentor) {
+        return request -> {
+            RetrievalAugmentor ready = readyOrNull(name, augmentor);
+            return ready != null
+                    ? ready.augment(request)
+                    : AugmentationResult.builder().chatMessage(request.chatMessage()).contents(List.of()).build();
+        };
+    }
+
+    /**
+     * ContentRetriever utilisable dès maintenant : aucun contenu tant que {@code retriever} n'est pas
+     * construit (ou attente, selon {@code -Drag.startup.wait}). Les autres sources du routeur, par
+     * exemple le web, répondent normalement pendant ce temps.
+     */
+    public ContentRetriever retrieverWhenReady(String name, CompletableFuture<? extends ContentRetriever> retriever) {
+        return query -> {
+            ContentRetriever ready = readyOrNull(name, retriever);
+            return ready != null ? ready.retrieve(query) : List.of();
+        };
+    }
+
+    /**
+     * Composant prêt, ou null : pas encore construit, ou construction en échec. Un échec (document
+     * illisible, index corrompu...) est signalé une fois ; la source reste ensuite indisponible et les
+     * questions partent sans ses documents au lieu d'échouer.
+     */
+    private <T> T readyOrNull(String name, CompletableFuture<? extends T> component) {
+        if (!component.isDone() && waitForIndex) {
+            System.out.println("LOG: attente de l'index '" + name + "'...");
+            try {
+                component.join();
+            } catch (CompletionException | CancellationException e) {
+                // signalé ci-dessous
+            }
+        }
+        if (component.isCompletedExceptionally()) {
+            queriesWithoutIndex.increment();
+            if (failed.add(name)) {
+                Throwable cause = component.exceptionNow();
+                System.err.println("LOG: index '" + name + "' indisponible, les réponses se feront sans ses documents : "
+                        + cause);
+                cause.printStackTrace();
+            }
+            return null;
+        }
+        T ready = component.getNow(null);
+        if (ready == null) {
+            queriesWithoutIndex.increment();
+            System.out.println("LOG: index '" + name + "' en cours de chargement, réponse sans ses documents.");
+        }
+        return ready;
+    }
+
+    /**
+     * Résultat du futur s'il est terminé avec succès, sinon null (en cours ou en échec) ; ne lève jamais.
+     */
+    public static <T> T readyNow(CompletableFuture<T> future) {
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    // ==== Préchauffage ====
+
+    private static void warmUp(EmbeddingModel model) {
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            for (String sentence : WARM_UP_SENTENCES) {
+                model.embed(sentence);
+            }
+        }
+    }
+
+    /**
+     * Quelques recherches pour compiler le parcours du magasin avant la première question.
+     */
+    private static void warmUp(PersistentEmbeddingStore store, EmbeddingModel model) {
+        for (String sentence : WARM_UP_SENTENCES) {
+            store.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(model.embed(sentence).content())
+                    .maxResults(2)
+                    .build());
+        }
+    }
+
+    // ==== Étapes du démarrage ====
+
+    /**
+     * À appeler quand l'invite (ou le serveur) est prête à recevoir des questions.
+     */
+    public void promptReady() {
+        milestone("prêt à recevoir les questions");
+    }
+
+    /**
+     * À appeler après chaque réponse : seule la première est datée.
+     */
+    public void answered() {
+        if (answered.compareAndSet(false, true)) {
+            milestone("première réponse");
+        }
+    }
+
+    /**
+     * Vrai quand le modèle d'embedding est chargé et préchauffé.
+     */
+    public boolean isModelReady() {
+        return model.isDone() && !model.isCompletedExceptionally();
+    }
+
+    private void milestone(String label) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        synchronized (milestones) {
+            milestones.add(new Milestone(label, uptime));
+        }
+    }
+
+    /**
+     * Étapes datées depuis le lancement de la JVM, dans l'ordre où elles ont eu lieu.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Démarrage (ms depuis le lancement de la JVM) :");
+        synchronized (milestones) {
+            milestones.stream()
+                    .sorted((a, b) -> Long.compare(a.uptimeMillis(), b.uptimeMillis()))
+                    .forEach(milestone -> report.append(String.format("%n%8d  %s",
+                            milestone.uptimeMillis(), milestone.label())));
+        }
+        if (queriesWithoutIndex.sum() > 0) {
+            report.append(String.format("%n%d question(s) traitée(s) sans index pendant le chargement",
+                    queriesWithoutIndex.sum()));
+        }
+        return report.toString();
+    }
+
+    private record Milestone(String label, long uptimeMillis) {
+    }
+
+    private static final class Tika {
+        static final Parser PARSER = new AutoDetectParser();
+        static final DocumentParser DOCUMENT_PARSER = new ApacheTikaDocumentParser(() -> PARSER,
+                ApacheTikaDocumentParser.DEFAULT_CONTENT_HANDLER_SUPPLIER,
+                ApacheTikaDocumentParser.DEFAULT_METADATA_SUPPLIER,
+                ApacheTikaDocumentParser.DEFAULT_PARSE_CONTEXT_SUPPLIER,
+                false);
+    }
+
+    /**
+     * Modèle d'embedding dont le chargement se termine en arrière-plan.
+     */
+    static final class LazyEmbeddingModel implements EmbeddingModel {
+        private final CompletableFuture<EmbeddingModel> delegate;
+
+        LazyEmbeddingModel(CompletableFuture<EmbeddingModel> delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * Classe du modèle réel, connue avant son chargement : elle entre dans la clé des index.
+         */
+        Class<? extends EmbeddingModel> modelClass() {
+            return AllMiniLmL6V2EmbeddingModel.class;
+        }
+
+        /**
+         * Vrai quand un appel ne bloquera plus sur le chargement.
+         */
+        boolean isLoaded() {
+            return delegate.isDone() && !delegate.isCompletedExceptionally();
+        }
+
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return delegate.join().embedAll(textSegments);
+        }
+
+        @Override
+        public Response<Embedding> embed(String text) {
+            return delegate.join().embed(text);
+        }
+
+        @Override
+        public Response<Embedding> embed(TextSegment textSegment) {
+            return delegate.join().embed(textSegment);
+        }
+
+        @Override
+        public int dimension() {
+            return delegate.join().dimension();
+        }
+    }
+}
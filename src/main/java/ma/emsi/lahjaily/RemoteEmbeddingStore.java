@@ -0,0 +1,293 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Client d'un shard servi par un {@link ShardServer} dans un autre processus (ou sur une autre machine).
+ * <p>
+ * Protocole binaire minimal sur TCP : chaque requête est une trame {@code [longueur][opération][données]},
+ * chaque réponse une trame {@code [longueur][statut][données]} ; chaînes et segments sont encodés comme
+ * dans le fichier d'index de PersistentEmbeddingStore. Un serveur héberge plusieurs collections nommées
+ * (une par corpus). Les connexions sont réutilisées : une par appel en cours, gardées ouvertes ensuite.
+ * <p>
+ * Les filtres de métadonnées ne sont pas transmis : une recherche filtrée ou {@code removeAll(Filter)}
+ * lève une UnsupportedOperationException.
+ */
+public class RemoteEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+
+    static final byte ADD_ALL = 1;
+    static final byte REMOVE_IDS = 2;
+    static final byte REMOVE_ALL = 3;
+    static final byte SEARCH = 4;
+    static final byte SIZE = 5;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // Taille maximale d'une trame, dans les deux sens : une longueur négative ou plus grande est refusée
+    static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    // Entrées par trame ADD_ALL (~2 Ko chacune pour des vecteurs de dimension 384)
+    private static final int ADD_BATCH_SIZE = 1_000;
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final String host;
+    private final int port;
+    private final String collection;
+    private final int timeoutMillis;
+    private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+
+    public RemoteEmbeddingStore(String host, int port, String collection) {
+        this(host, port, collection, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout délai de connexion et de lecture de chaque appel
+     */
+    public RemoteEmbeddingStore(String host, int port, String collection, Duration timeout) {
+        this.host = host;
+        this.port = port;
+        this.collection = collection;
+        this.timeoutMillis = (int) timeout.toMillis();
+    }
+
+    /**
+     * Client à partir d'une adresse {@code hôte:port}.
+     */
+    public static RemoteEmbeddingStore of(String address, String collection) {
+        int colon = address.lastIndexOf(':');
+        return new RemoteEmbeddingStore(address.substring(0, colon).strip(),
+                Integer.parseInt(address.substring(colon + 1).strip()), collection);
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        return addAll(List.of(embedding)).get(0);
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        return addAll(List.of(embedding), List.of(textSegment)).get(0);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = generateIds(embeddings.size());
+        addAll(ids, embeddings, null);
+        return ids;
+    }
+
+    /**
+     * Envoie les entrées par lots de {@link #ADD_BATCH_SIZE} : chaque trame reste bien en dessous de
+     * {@link #MAX_FRAME_BYTES}, quelle que soit la taille du corpus.
+     */
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        for (int from = 0; from < ids.size(); from += ADD_BATCH_SIZE) {
+            int start = from;
+            int end = Math.min(ids.size(), from + ADD_BATCH_SIZE);
+            call(ADD_ALL, out -> {
+                out.writeInt(end - start);
+                for (int i = start; i < end; i++) {
+                    PersistentEmbeddingStore.writeString(out, ids.get(i));
+                    writeVector(out, embeddings.get(i).vector());
+                    PersistentEmbeddingStore.writeSegment(out, embedded == null ? null : embedded.get(i));
+                }
+            });
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        call(REMOVE_IDS, out -> {
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                PersistentEmbeddingStore.writeString(out, id);
+            }
+        });
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        throw new UnsupportedOperationException("Les filtres ne sont pas transmis aux shards distants");
+    }
+
+    @Override
+    public void removeAll() {
+        call(REMOVE_ALL, out -> {
+        });
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        if (request.filter() != null) {
+            throw new UnsupportedOperationException("Les filtres ne sont pas transmis aux shards distants");
+        }
+        ByteBuffer response = call(SEARCH, out -> {
+            out.writeInt(request.maxResults());
+            out.writeDouble(request.minScore());
+            writeVector(out, request.queryEmbedding().vector());
+        });
+        int count = readCount(response);
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double score = response.getDouble();
+            String id = PersistentEmbeddingStore.readString(response);
+            Embedding embedding = Embedding.from(readVector(response));
+            matches.add(new EmbeddingMatch<>(score, id, embedding, PersistentEmbeddingStore.readSegment(response)));
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    public int size() {
+        return call(SIZE, out -> {
+        }).getInt();
+    }
+
+    @Override
+    public void close() {
+        for (Connection connection = idle.poll(); connection != null; connection = idle.poll()) {
+            connection.close();
+        }
+    }
+
+    // ==== Transport ====
+
+    private ByteBuffer call(byte operation, Payload payload) {
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = new Connection(host, port, timeoutMillis);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream request = new DataOutputStream(bytes);
+            request.writeByte(operation);
+            PersistentEmbeddingStore.writeString(request, collection);
+            payload.write(request);
+            writeFrame(connection.out, bytes.toByteArray());
+
+            ByteBuffer response = readFrame(connection.in);
+            idle.add(connection);
+            connection = null;
+            if (response.get() == ERROR) {
+                throw new IllegalStateException("Shard " + host + ":" + port + " : "
+                        + PersistentEmbeddingStore.readString(response));
+            }
+            return response;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Shard " + host + ":" + port + " injoignable", e);
+        } finally {
+            if (connection != null) {
+                connection.close(); // état du flux inconnu après une erreur : on ne la réutilise pas
+            }
+        }
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        if (frame.length > MAX_FRAME_BYTES) {
+            throw new IOException("Trame trop grande : " + frame.length + " octets");
+        }
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Lit une trame ; sa longueur est vérifiée avant d'allouer quoi que ce soit.
+     */
+    static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Longueur de trame invalide : " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Nombre d'éléments annoncé dans une trame : chaque élément occupe au moins un octet.
+     */
+    static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IllegalArgumentException("Nombre d'éléments invalide : " + count);
+        }
+        return count;
+    }
+
+    static void writeVector(DataOutputStream out, float[] vector) throws IOException {
+        out.writeInt(vector.length);
+        for (float value : vector) {
+            out.writeFloat(value);
+        }
+    }
+
+    static float[] readVector(ByteBuffer buffer) {
+        int dimension = buffer.getInt();
+        if (dimension < 0 || dimension > buffer.remaining() / Float.BYTES) {
+            throw new IllegalArgumentException("Dimension de vecteur invalide : " + dimension);
+        }
+        float[] vector = new float[dimension];
+        buffer.asFloatBuffer().get(vector);
+        buffer.position(buffer.position() + vector.length * Float.BYTES);
+        return vector;
+    }
+
+    @FunctionalInterface
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(String host, int port, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // connexion déjà perdue
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stockage compact des ids, textes et métadonnées des segments, ligne par ligne.
+ * <p>
+ * Tout est encodé dans une arène d'octets : pas d'objet String ni TextSegment par segment,
+ * ils ne sont recréés qu'à la lecture. Les noms de clés de métadonnées sont partagés (dictionnaire).
+ * Non thread-safe : c'est le magasin qui l'utilise qui pose les verrous.
+ */
+final class SegmentArena {
+
+    private static final long NONE = -1;
+
+    private ByteArena arena = new ByteArena();
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+
+    private int size;
+    private long[] idRefs = new long[0];
+    private long[] textRefs = new long[0];
+    private long[] metadataRefs = new long[0];
+
+    /**
+     * Ajoute une ligne et retourne son numéro.
+     */
+    int add(String id, TextSegment segment) {
+        if (size == idRefs.length) {
+            int newCapacity = Math.max(1024, idRefs.length * 2);
+            idRefs = Arrays.copyOf(idRefs, newCapacity);
+            textRefs = Arrays.copyOf(textRefs, newCapacity);
+            metadataRefs = Arrays.copyOf(metadataRefs, newCapacity);
+        }
+        idRefs[size] = arena.append(id.getBytes(StandardCharsets.UTF_8));
+        textRefs[size] = segment == null ? NONE : arena.append(segment.text().getBytes(StandardCharsets.UTF_8));
+        metadataRefs[size] = segment == null || segment.metadata().toMap().isEmpty()
+                ? NONE : arena.append(encodeMetadata(segment.metadata()));
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        arena = new ByteArena();
+        size = 0;
+    }
+
+    String id(int row) {
+        return new String(arena.get(idRefs[row]), StandardCharsets.UTF_8);
+    }
+
+    boolean hasSegment(int row) {
+        return textRefs[row] != NONE;
+    }
+
+    TextSegment segment(int row) {
+        if (textRefs[row] == NONE) {
+            return null;
+        }
+        return TextSegment.from(new String(arena.get(textRefs[row]), StandardCharsets.UTF_8), metadata(row));
+    }
+
+    Metadata metadata(int row) {
+        return metadataRefs[row] == NONE ? new Metadata() : decodeMetadata(arena.get(metadataRefs[row]));
+    }
+
+    // ==== Encodage des métadonnées : (id de clé, type, valeur) ====
+
+    private byte[] encodeMetadata(Metadata metadata) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            Map<String, Object> map = metadata.toMap();
+            out.writeShort(map.size());
+            for (Map.Entry<String, Object> entry : map.entrySet()) {
+                out.writeShort(keyIds.computeIfAbsent(entry.getKey(), key -> {
+                    keys.add(key);
+                    return keys.size() - 1;
+                }));
+                Object value = entry.getValue();
+                if (value instanceof Integer i) {
+                    out.writeByte(1);
+                    out.writeInt(i);
+                } else if (value instanceof Long l) {
+                    out.writeByte(2);
+                    out.writeLong(l);
+                } else if (value instanceof Float f) {
+                    out.writeByte(3);
+                    out.writeFloat(f);
+                } else if (value instanceof Double d) {
+                    out.writeByte(4);
+                    out.writeDouble(d);
+                } else if (value instanceof UUID uuid) {
+                    out.writeByte(5);
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                } else {
+                    byte[] utf8 = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(0);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Metadata decodeMetadata(byte[] encoded) {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        int count = in.getShort();
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = keys.get(in.getShort());
+            byte type = in.get();
+            Object value = switch (type) {
+                case 1 -> in.getInt();
+                case 2 -> in.getLong();
+                case 3 -> in.getFloat();
+                case 4 -> in.getDouble();
+                case 5 -> new UUID(in.getLong(), in.getLong());
+                default -> {
+                    byte[] utf8 = new byte[in.getInt()];
+                    in.get(utf8);
+                    yield new String(utf8, StandardCharsets.UTF_8);
+                }
+            };
+            map.put(key, value);
+        }
+        return Metadata.from(map);
+    }
+
+    /**
+     * Arène d'octets en pages de 1 Mo : chaque entrée est préfixée par sa longueur et désignée
+     * par une référence (numéro de page sur 32 bits, position dans la page sur 32 bits).
+     */
+    static final class ByteArena {
+        private static final int PAGE_SIZE = 1 << 20;
+
+        private byte[][] pages = new byte[0][];
+        private int position = PAGE_SIZE;
+
+        long append(byte[] bytes) {
+            int needed = bytes.length + Integer.BYTES;
+            if (pages.length == 0 || position + needed > pages[pages.length - 1].length) {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = new byte[Math.max(PAGE_SIZE, needed)];
+                position = 0;
+            }
+            int page = pages.length - 1;
+            long ref = ((long) page << 32) | position;
+            ByteBuffer.wrap(pages[page], position, Integer.BYTES).putInt(bytes.length);
+            System.arraycopy(bytes, 0, pages[page], position + Integer.BYTES, bytes.length);
+            position += needed;
+            return ref;
+        }
+
+        byte[] get(long ref) {
+            byte[] page = pages[(int) (ref >>> 32)];
+            int offset = (int) ref;
+            int length = ByteBuffer.wrap(page, offset, Integer.BYTES).getInt();
+            return Arrays.copyOfRange(page, offset + Integer.BYTES, offset + Integer.BYTES + length);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache persistant "hash du texte d'un segment → vecteur".
+ * <p>
+ * Un segment dont le texte n'a pas changé n'est jamais renvoyé au modèle d'embedding :
+ * son vecteur est relu depuis ce cache. Le fichier a des entrées de largeur fixe
+ * (32 octets de hash + dimension floats) et est lu en entier à l'ouverture.
+ * <p>
+ * Le cache est borné à {@code maxEntries} entrées (LRU, {@code -Drag.cache.segments.max}, 50 000
+ * par défaut) : les segments des documents qui ne sont plus réindexés finissent par en sortir.
+ * Une entrée évincée n'est pas perdue pour autant : l'index du document garde son vecteur et le
+ * remet dans le cache à la mise à jour suivante.
+ */
+public class SegmentEmbeddingCache {
+
+    private static final int MAGIC = 0x52414743; // "RAGC"
+    private static final int HASH_BYTES = 32;
+    private static final int DEFAULT_MAX_ENTRIES = Integer.getInteger("rag.cache.segments.max", 50_000);
+
+    private final Path file;
+    // Ordre d'accès = LRU ; protégé par synchronized (vectors)
+    private final Map<String, float[]> vectors;
+    private volatile boolean dirty;
+
+    private SegmentEmbeddingCache(Path file, int maxEntries) {
+        this.file = file;
+        this.vectors = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                if (size() > maxEntries) {
+                    dirty = true; // le fichier rétrécira à la prochaine sauvegarde
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Ouvre le cache stocké dans le fichier indiqué (vide si le fichier n'existe pas encore).
+     * Chaque appel relit le fichier : pour partager un cache entre ingestions, passer par
+     * {@code DocumentIngestor.segmentCache}.
+     */
+    public static SegmentEmbeddingCache open(Path file) {
+        return open(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries nombre maximal de vecteurs gardés ; au-delà, les moins récemment utilisés sont évincés
+     */
+    public static SegmentEmbeddingCache open(Path file, int maxEntries) {
+        SegmentEmbeddingCache cache = new SegmentEmbeddingCache(file, maxEntries);
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        // Lecture simple, sans mapping : save() remplace ce fichier par un autre
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                return cache; // fichier d'une autre version : on repart d'un cache vide
+            }
+            int dimension = in.readInt();
+            int count = in.readInt();
+            byte[] hash = new byte[HASH_BYTES];
+            // Entrées écrites de la moins à la plus récemment utilisée : l'ordre LRU est conservé
+            for (int i = 0; i < count; i++) {
+                in.readFully(hash);
+                float[] vector = new float[dimension];
+                for (int d = 0; d < dimension; d++) {
+                    vector[d] = in.readFloat();
+                }
+                cache.vectors.put(HexFormat.of().formatHex(hash), vector);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return cache;
+    }
+
+    public Embedding get(String hash) {
+        float[] vector;
+        synchronized (vectors) {
+            vector = vectors.get(hash);
+        }
+        return vector == null ? null : Embedding.from(vector.clone());
+    }
+
+    public boolean contains(String hash) {
+        synchronized (vectors) {
+            return vectors.containsKey(hash);
+        }
+    }
+
+    public void put(String hash, Embedding embedding) {
+        float[] vector = embedding.vector().clone();
+        synchronized (vectors) {
+            vectors.put(hash, vector);
+        }
+        dirty = true;
+    }
+
+    public int size() {
+        synchronized (vectors) {
+            return vectors.size();
+        }
+    }
+
+    /**
+     * Écrit le cache sur disque s'il a été modifié depuis son ouverture.
+     */
+    public synchronized void save() {
+        List<Map.Entry<String, float[]>> snapshot;
+        synchronized (vectors) {
+            if (!dirty || vectors.isEmpty()) {
+                return;
+            }
+            // Remis à false avec la copie : une entrée ajoutée pendant l'écriture sera sauvegardée la prochaine fois
+            dirty = false;
+            snapshot = vectors.entrySet().stream().map(e -> Map.entry(e.getKey(), e.getValue())).toList();
+        }
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            int dimension = snapshot.get(0).getValue().length;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(dimension);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, float[]> entry : snapshot) {
+                    out.write(HexFormat.of().parseHex(entry.getKey()));
+                    for (float value : entry.getValue()) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Hash SHA-256 (hexadécimal) du texte d'un segment : c'est la clé du cache.
+     */
+    public static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
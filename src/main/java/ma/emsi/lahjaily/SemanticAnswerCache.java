@@ -0,0 +1,311 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.Capability;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.request.ChatRequestParameters;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.ContentMetadata;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache sémantique des réponses du LLM : une question proche d'une question déjà posée
+ * (cosinus des embeddings au moins égal à {@code minSimilarity}) et pour laquelle le retriever
+ * a trouvé exactement les mêmes segments reçoit la réponse déjà générée, sans appel au modèle.
+ * <p>
+ * Le cache se branche à deux endroits de l'assistant :
+ * <ul>
+ *   <li>{@link #injector(ContentInjector)} décore le ContentInjector du RetrievalAugmentor : il voit
+ *   la question et les contenus retrouvés (identifiés par {@code EMBEDDING_ID}, ou par le hash du texte
+ *   pour les contenus web), cherche une entrée correspondante et l'associe au message augmenté ;</li>
+ *   <li>{@link #streaming(StreamingChatModel)} et {@link #chatModel(ChatModel)} décorent le modèle :
+ *   si le dernier message de la requête a une réponse en cache, elle est renvoyée telle quelle ; sinon
+ *   le modèle est appelé et sa réponse complète est mise en cache.</li>
+ * </ul>
+ * Les deux doivent être branchés sur le même assistant : chaque clé préparée par l'injecteur est
+ * consommée par l'appel au modèle qui suit, sur le même thread (celui qui appelle l'assistant, ou
+ * {@code TokenStream.start()} en streaming). La clé est gardée par thread : deux sessions qui envoient
+ * la même question en même temps ne se la disputent pas, et une requête qui échoue avant l'appel au
+ * modèle ne laisse au plus qu'une clé, remplacée par la requête suivante du thread.
+ * L'historique de la conversation ne fait pas partie de la clé : c'est le choix habituel d'un cache
+ * de FAQ, acceptable ici parce que les segments retrouvés doivent être identiques.
+ * <p>
+ * Les questions en cache forment un petit index vectoriel borné ({@code capacity} entrées, les moins
+ * récemment utilisées sont évincées) parcouru linéairement. Le cache est vidé dès que
+ * {@code storeGeneration} change, c'est-à-dire quand le magasin d'embeddings a été ré-ingéré.
+ */
+public class SemanticAnswerCache {
+
+    private final EmbeddingModel queryEmbeddingModel;
+    private final int capacity;
+    private final double minSimilarity;
+    private final LongSupplier storeGeneration;
+
+    // Ordre d'accès : la première entrée est la moins récemment utilisée
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Clé (et éventuelle réponse) calculée par l'injecteur, consommée par l'appel au modèle du même thread
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+    private long nextEntryId;
+    private long generation;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param queryEmbeddingModel modèle utilisé par le retriever (de préférence le même
+     *                            CachingEmbeddingModel : la question n'est alors embeddée qu'une fois)
+     * @param minSimilarity       cosinus minimal entre deux questions pour réutiliser une réponse
+     * @param storeGeneration     version du contenu du magasin, par exemple
+     *                            {@code store::generation} pour un PersistentEmbeddingStore
+     */
+    public SemanticAnswerCache(EmbeddingModel queryEmbeddingModel, int capacity, double minSimilarity,
+                               LongSupplier storeGeneration) {
+        this(queryEmbeddingModel, capacity, minSimilarity, storeGeneration, new PipelineMetrics());
+    }
+
+    /**
+     * Succès et échecs sont comptés dans les compteurs {@link PipelineMetrics#ANSWER_CACHE_HITS}
+     * et {@link PipelineMetrics#ANSWER_CACHE_MISSES} de {@code metrics}.
+     */
+    public SemanticAnswerCache(EmbeddingModel queryEmbeddingModel, int capacity, double minSimilarity,
+                               LongSupplier storeGeneration, PipelineMetrics metrics) {
+        this.queryEmbeddingModel = queryEmbeddingModel;
+        this.capacity = capacity;
+        this.minSimilarity = minSimilarity;
+        this.storeGeneration = storeGeneration;
+        this.generation = storeGeneration.getAsLong();
+        this.hits = metrics.counter(PipelineMetrics.ANSWER_CACHE_HITS);
+        this.misses = metrics.counter(PipelineMetrics.ANSWER_CACHE_MISSES);
+    }
+
+    public ContentInjector injector(ContentInjector delegate) {
+        return new ContentInjector() {
+            @Override
+            public ChatMessage inject(List<Content> contents, ChatMessage chatMessage) {
+                ChatMessage injected = delegate.inject(contents, chatMessage);
+                if (chatMessage instanceof UserMessage question && question.hasSingleText()
+                        && injected instanceof UserMessage augmented && augmented.hasSingleText()) {
+                    float[] vector = VectorMath.normalized(
+                            queryEmbeddingModel.embed(question.singleText()).content().vector());
+                    String segments = segmentsKey(contents);
+                    pending.set(lookup(augmented.singleText(), vector, segments));
+                }
+                return injected;
+            }
+        };
+    }
+
+    public ChatModel chatModel(ChatModel delegate) {
+        return new ChatModel() {
+            @Override
+            public ChatRequestParameters defaultRequestParameters() {
+                return delegate.defaultRequestParameters();
+            }
+
+            @Override
+            public Set<Capability> supportedCapabilities() {
+                return delegate.supportedCapabilities();
+            }
+
+            @Override
+            public ChatResponse doChat(ChatRequest chatRequest) {
+                Pending key = pending(chatRequest);
+                if (key == null) {
+                    return delegate.chat(chatRequest);
+                }
+                if (key.answer != null) {
+                    return cachedResponse(key.answer);
+                }
+                ChatResponse response = delegate.chat(chatRequest);
+                storeIfComplete(key, response);
+                return response;
+            }
+        };
+    }
+
+    public StreamingChatModel streaming(StreamingChatModel delegate) {
+        return new StreamingChatModel() {
+            @Override
+            public ChatRequestParameters defaultRequestParameters() {
+                return delegate.defaultRequestParameters();
+            }
+
+            @Override
+            public Set<Capability> supportedCapabilities() {
+                return delegate.supportedCapabilities();
+            }
+
+            @Override
+            public void doChat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+                Pending key = pending(chatRequest);
+                if (key == null) {
+                    delegate.chat(chatRequest, handler);
+                } else if (key.answer != null) {
+                    handler.onPartialResponse(key.answer);
+                    handler.onCompleteResponse(cachedResponse(key.answer));
+                } else {
+                    delegate.chat(chatRequest, new StreamingChatResponseHandler() {
+                        @Override
+                        public void onPartialResponse(String partialResponse) {
+                            handler.onPartialResponse(partialResponse);
+                        }
+
+                        @Override
+                        public void onCompleteResponse(ChatResponse completeResponse) {
+                            storeIfComplete(key, completeResponse);
+                            handler.onCompleteResponse(completeResponse);
+                        }
+
+                        @Override
+                        public void onError(Throwable error) {
+                            handler.onError(error);
+                        }
+                    });
+                }
+            }
+        };
+    }
+
+    /**
+     * Clé préparée par l'injecteur pour le dernier message de la requête (null : requête hors RAG,
+     * par exemple le routage, qui laisse la clé en place pour l'appel suivant).
+     */
+    private Pending pending(ChatRequest chatRequest) {
+        Pending key = pending.get();
+        if (key != null && chatRequest.messages().getLast() instanceof UserMessage last && last.hasSingleText()
+                && last.singleText().equals(key.message())) {
+            pending.remove();
+            return key;
+        }
+        return null;
+    }
+
+    private static ChatResponse cachedResponse(String answer) {
+        return ChatResponse.builder()
+                .aiMessage(AiMessage.from(answer))
+                .finishReason(FinishReason.STOP)
+                .build();
+    }
+
+    /**
+     * Seules les réponses textuelles complètes sont gardées (pas d'appel d'outil ni de réponse tronquée).
+     */
+    private void storeIfComplete(Pending key, ChatResponse response) {
+        AiMessage aiMessage = response.aiMessage();
+        if (!aiMessage.hasToolExecutionRequests() && aiMessage.text() != null && !aiMessage.text().isBlank()
+                && response.finishReason() != FinishReason.LENGTH) {
+            store(key, aiMessage.text());
+        }
+    }
+
+    private synchronized Pending lookup(String message, float[] vector, String segments) {
+        checkGeneration();
+        Entry best = null;
+        double bestSimilarity = minSimilarity;
+        for (Entry entry : entries.values()) {
+            if (!entry.segments.equals(segments)) {
+                continue;
+            }
+            double similarity = VectorMath.dot(vector, entry.vector);
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best == null) {
+            misses.increment();
+            return new Pending(message, vector, segments, generation, null);
+        }
+        entries.get(best.id); // marque l'entrée comme récemment utilisée
+        hits.increment();
+        return new Pending(message, vector, segments, generation, best.answer);
+    }
+
+    private synchronized void store(Pending key, String answer) {
+        checkGeneration();
+        if (key.generation != generation) {
+            return; // réponse construite sur l'ancien contenu du magasin
+        }
+        long id = nextEntryId++;
+        entries.put(id, new Entry(id, key.vector, key.segments, answer));
+        if (entries.size() > capacity) {
+            Iterator<Entry> eldest = entries.values().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void checkGeneration() {
+        long current = storeGeneration.getAsLong();
+        if (current != generation) {
+            generation = current;
+            if (!entries.isEmpty()) {
+                entries.clear();
+                invalidations.increment();
+            }
+        }
+    }
+
+    /**
+     * Vide le cache (par exemple après une modification du prompt système).
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        invalidations.increment();
+    }
+
+    /**
+     * Ensemble trié des identifiants des contenus retrouvés, indépendant de leur ordre.
+     */
+    private static String segmentsKey(List<Content> contents) {
+        TreeSet<String> ids = new TreeSet<>();
+        for (Content content : contents) {
+            Object id = content.metadata().get(ContentMetadata.EMBEDDING_ID);
+            ids.add(id != null ? id.toString() : SegmentEmbeddingCache.hash(content.textSegment().text()));
+        }
+        return String.join(",", ids);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), entries.size(), evictions.sum(), invalidations.sum());
+    }
+
+    private record Entry(long id, float[] vector, String segments, String answer) {
+    }
+
+    private record Pending(String message, float[] vector, String segments, long generation, String answer) {
+    }
+
+    public record Stats(long hits, long misses, int entries, long evictions, long invalidations) {
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d questions, %d réponses servies par le cache (%.0f %%), %d entrées, "
+                            + "%d évictions, %d invalidations",
+                    hits + misses, hits, hitRate() * 100, entries, evictions, invalidations);
+        }
+    }
+}
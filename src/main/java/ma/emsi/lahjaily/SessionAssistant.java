@@ -0,0 +1,18 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.service.MemoryId;
+import dev.langchain4j.service.TokenStream;
+import dev.langchain4j.service.UserMessage;
+import dev.langchain4j.service.memory.ChatMemoryAccess;
+
+/**
+ * Variante multi-utilisateurs de {@link Assistant} : chaque session a sa propre ChatMemory
+ * (fournie par un ChatMemoryProvider), identifiée par {@code sessionId}.
+ * {@link #chatStream} renvoie la réponse token par token (nécessite un StreamingChatModel).
+ */
+public interface SessionAssistant extends ChatMemoryAccess {
+
+    String chat(@MemoryId String sessionId, @UserMessage String userMessage);
+
+    TokenStream chatStream(@MemoryId String sessionId, @UserMessage String userMessage);
+}
@@ -0,0 +1,232 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Processus hébergeant des shards d'embeddings pour {@link RemoteEmbeddingStore}.
+ * <p>
+ * Chaque collection nommée est un PersistentEmbeddingStore en mémoire, créé au premier ajout ; ajouter
+ * un id déjà présent remplace son entrée.
+ * Chaque connexion est servie par un thread virtuel ; les recherches concurrentes sur une même
+ * collection se partagent le verrou de lecture du magasin.
+ * <p>
+ * Lancement : {@code java ma.emsi.lahjaily.ShardServer <port> [collection=fichier.idx ...]}. Les fichiers
+ * indiqués (produits par DocumentIngestor) sont chargés au démarrage ; sinon les collections sont
+ * remplies par les clients.
+ * <p>
+ * Le protocole n'a pas d'authentification : tout client qui joint le port peut modifier les collections.
+ * Le serveur n'écoute donc que sur l'interface locale par défaut ; pour servir d'autres machines d'un
+ * réseau de confiance, indiquer l'adresse d'écoute avec {@code -Drag.shard.bind=...} (par exemple
+ * {@code 0.0.0.0}). Une trame plus grande que {@link RemoteEmbeddingStore#MAX_FRAME_BYTES} ferme la connexion.
+ */
+public class ShardServer implements Closeable {
+
+    private final Map<String, PersistentEmbeddingStore> collections = new ConcurrentHashMap<>();
+    private final ServerSocket serverSocket;
+    private volatile boolean closed;
+
+    /**
+     * Serveur à l'écoute sur l'interface locale uniquement.
+     *
+     * @param port port d'écoute (0 : port libre choisi par le système)
+     */
+    public ShardServer(int port) {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param bindAddress interface d'écoute
+     * @param port        port d'écoute (0 : port libre choisi par le système)
+     */
+    public ShardServer(InetAddress bindAddress, int port) {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public ShardServer start() {
+        Thread.ofPlatform().name("shard-" + port()).start(this::acceptLoop);
+        return this;
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sert une collection déjà construite (par exemple chargée depuis un fichier d'index).
+     */
+    public void host(String collection, PersistentEmbeddingStore store) {
+        collections.put(collection, store);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // déjà fermé
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread.ofVirtual().start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Shard " + port() + " : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            while (!closed) {
+                ByteBuffer request = RemoteEmbeddingStore.readFrame(in);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream response = new DataOutputStream(bytes);
+                try {
+                    byte operation = request.get();
+                    String collection = PersistentEmbeddingStore.readString(request);
+                    response.writeByte(RemoteEmbeddingStore.OK);
+                    handle(operation, collection, request, response);
+                } catch (RuntimeException e) {
+                    bytes.reset();
+                    response.writeByte(RemoteEmbeddingStore.ERROR);
+                    PersistentEmbeddingStore.writeString(response, String.valueOf(e.getMessage()));
+                }
+                RemoteEmbeddingStore.writeFrame(out, bytes.toByteArray());
+            }
+        } catch (EOFException e) {
+            // le client a fermé la connexion
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("Shard " + port() + " : connexion interrompue (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    private void handle(byte operation, String collection, ByteBuffer request, DataOutputStream response)
+            throws IOException {
+        switch (operation) {
+            case RemoteEmbeddingStore.ADD_ALL -> {
+                int count = RemoteEmbeddingStore.readCount(request);
+                List<String> ids = new ArrayList<>(count);
+                List<Embedding> embeddings = new ArrayList<>(count);
+                List<TextSegment> segments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(PersistentEmbeddingStore.readString(request));
+                    embeddings.add(Embedding.from(RemoteEmbeddingStore.readVector(request)));
+                    segments.add(PersistentEmbeddingStore.readSegment(request));
+                }
+                // Ajout idempotent : un id déjà présent est remplacé, deux clients qui envoient le même
+                // corpus en même temps ne dupliquent pas ses entrées
+                PersistentEmbeddingStore store = collections.computeIfAbsent(collection, c -> new PersistentEmbeddingStore());
+                synchronized (store) {
+                    store.removeAll(ids);
+                    store.addAll(ids, embeddings, segments);
+                }
+            }
+            case RemoteEmbeddingStore.REMOVE_IDS -> {
+                int count = RemoteEmbeddingStore.readCount(request);
+                List<String> ids = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ids.add(PersistentEmbeddingStore.readString(request));
+                }
+                PersistentEmbeddingStore store = collections.get(collection);
+                if (store != null) {
+                    store.removeAll(ids);
+                }
+            }
+            case RemoteEmbeddingStore.REMOVE_ALL -> {
+                PersistentEmbeddingStore store = collections.get(collection);
+                if (store != null) {
+                    store.removeAll();
+                }
+            }
+            case RemoteEmbeddingStore.SEARCH -> {
+                int maxResults = request.getInt();
+                double minScore = request.getDouble();
+                Embedding query = Embedding.from(RemoteEmbeddingStore.readVector(request));
+                PersistentEmbeddingStore store = collections.get(collection);
+                List<EmbeddingMatch<TextSegment>> matches = store == null ? List.of()
+                        : store.search(EmbeddingSearchRequest.builder()
+                        .queryEmbedding(query)
+                        .maxResults(maxResults)
+                        .minScore(minScore)
+                        .build()).matches();
+                response.writeInt(matches.size());
+                for (EmbeddingMatch<TextSegment> match : matches) {
+                    response.writeDouble(match.score());
+                    PersistentEmbeddingStore.writeString(response, match.embeddingId());
+                    RemoteEmbeddingStore.writeVector(response, match.embedding().vector());
+                    PersistentEmbeddingStore.writeSegment(response, match.embedded());
+                }
+            }
+            case RemoteEmbeddingStore.SIZE -> {
+                PersistentEmbeddingStore store = collections.get(collection);
+                response.writeInt(store == null ? 0 : store.size());
+            }
+            default -> throw new IllegalArgumentException("Opération inconnue : " + operation);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage : ShardServer <port> [collection=fichier.idx ...]");
+            return;
+        }
+        String bind = System.getProperty("rag.shard.bind");
+        ShardServer server;
+        try {
+            server = new ShardServer(bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind),
+                    Integer.parseInt(args[0]));
+        } catch (UnknownHostException e) {
+            System.err.println("Adresse d'écoute inconnue : " + bind);
+            return;
+        }
+        for (int i = 1; i < args.length; i++) {
+            String[] mapping = args[i].split("=", 2);
+            PersistentEmbeddingStore store = PersistentEmbeddingStore.load(Paths.get(mapping[1]));
+            server.host(mapping[0], store);
+            System.out.println("Collection '" + mapping[0] + "' chargée (" + store.size() + " segments).");
+        }
+        server.start();
+        System.out.println("Shard à l'écoute sur " + server.serverSocket.getInetAddress().getHostAddress()
+                + ":" + server.port() + ".");
+    }
+}
@@ -0,0 +1,218 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * EmbeddingStore réparti sur K shards (des PersistentEmbeddingStore en mémoire, ou des
+ * {@link RemoteEmbeddingStore} servis par d'autres processus avec {@link ShardServer}).
+ * <p>
+ * Chaque segment est rangé dans un seul shard, choisi par hash de son identifiant
+ * ({@link Partitioning#BY_ID}, répartition uniforme) ou de son document d'origine
+ * ({@link Partitioning#BY_DOCUMENT}, métadonnée {@code file_name} : un document reste entier sur un shard).
+ * <p>
+ * Une recherche interroge tous les shards en parallèle sur un ForkJoinPool : chaque shard garde ses
+ * {@code maxResults} meilleurs candidats (tas borné), puis les listes sont fusionnées deux à deux en
+ * remontant l'arbre des tâches. Sur une machine à N cœurs, la latence d'une recherche exhaustive est
+ * divisée par min(K, N) ; avec des shards distants, la capacité s'étend au nombre de processus.
+ */
+public class ShardedEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    public enum Partitioning {
+        BY_ID,
+        BY_DOCUMENT
+    }
+
+    private final List<EmbeddingStore<TextSegment>> shards;
+    private final Partitioning partitioning;
+    private final ForkJoinPool pool;
+
+    public ShardedEmbeddingStore(List<EmbeddingStore<TextSegment>> shards, Partitioning partitioning) {
+        this(shards, partitioning, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool pool des recherches ; pour des shards distants (appels bloquants), un pool dédié
+     *             d'au moins {@code shards.size()} threads
+     */
+    public ShardedEmbeddingStore(List<EmbeddingStore<TextSegment>> shards, Partitioning partitioning,
+                                 ForkJoinPool pool) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Il faut au moins un shard");
+        }
+        this.shards = List.copyOf(shards);
+        this.partitioning = partitioning;
+        this.pool = pool;
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    // ==== Écriture : chaque entrée va dans son shard ====
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        shards.get(shardOf(id, null)).add(id, embedding);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        if (ids.size() != embeddings.size() || (embedded != null && embedded.size() != embeddings.size())) {
+            throw new IllegalArgumentException("Les listes d'ids, d'embeddings et de segments doivent avoir la même taille");
+        }
+        List<List<Integer>> byShard = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            byShard.get(shardOf(ids.get(i), embedded == null ? null : embedded.get(i))).add(i);
+        }
+        for (int s = 0; s < shards.size(); s++) {
+            List<Integer> indices = byShard.get(s);
+            if (indices.isEmpty()) {
+                continue;
+            }
+            shards.get(s).addAll(indices.stream().map(ids::get).toList(),
+                    indices.stream().map(embeddings::get).toList(),
+                    embedded == null ? null : indices.stream().map(embedded::get).toList());
+        }
+    }
+
+    @Override
+    public void remove(String id) {
+        removeAll(List.of(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        if (partitioning == Partitioning.BY_DOCUMENT) {
+            // Le document de chaque id n'est pas connu ici : la suppression est diffusée à tous les shards
+            shards.forEach(shard -> shard.removeAll(ids));
+            return;
+        }
+        List<List<String>> byShard = new ArrayList<>();
+        for (int s = 0; s < shards.size(); s++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (String id : ids) {
+            byShard.get(shardOf(id, null)).add(id);
+        }
+        for (int s = 0; s < shards.size(); s++) {
+            if (!byShard.get(s).isEmpty()) {
+                shards.get(s).removeAll(byShard.get(s));
+            }
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        shards.forEach(shard -> shard.removeAll(filter));
+    }
+
+    @Override
+    public void removeAll() {
+        shards.forEach(EmbeddingStore::removeAll);
+    }
+
+    private int shardOf(String id, TextSegment segment) {
+        String key = id;
+        if (partitioning == Partitioning.BY_DOCUMENT && segment != null
+                && segment.metadata().getString("file_name") != null) {
+            key = segment.metadata().getString("file_name");
+        }
+        // String.hashCode est stable d'une JVM à l'autre : la répartition ne change pas au redémarrage
+        return Math.floorMod(key.hashCode(), shards.size());
+    }
+
+    // ==== Recherche : scatter-gather ====
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        return new EmbeddingSearchResult<>(pool.invoke(new SearchTask(request, 0, shards.size())));
+    }
+
+    /**
+     * Recherche sur les shards {@code [from, to)} : une moitié est lancée en parallèle, l'autre calculée
+     * sur place, puis les deux listes triées sont fusionnées et tronquées à maxResults.
+     */
+    private final class SearchTask extends RecursiveTask<List<EmbeddingMatch<TextSegment>>> {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        // Tâche jamais sérialisée : ForkJoinTask n'est Serializable que par héritage
+        private final transient EmbeddingSearchRequest request;
+        private final int from;
+        private final int to;
+
+        SearchTask(EmbeddingSearchRequest request, int from, int to) {
+            this.request = request;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<EmbeddingMatch<TextSegment>> compute() {
+            if (to - from == 1) {
+                return shards.get(from).search(request).matches();
+            }
+            int middle = (from + to) >>> 1;
+            SearchTask left = new SearchTask(request, from, middle);
+            left.fork();
+            List<EmbeddingMatch<TextSegment>> right = new SearchTask(request, middle, to).compute();
+            return merge(left.join(), right, request.maxResults());
+        }
+    }
+
+    /**
+     * Fusion de deux listes triées par score décroissant, limitée aux {@code maxResults} premiers.
+     */
+    private static List<EmbeddingMatch<TextSegment>> merge(List<EmbeddingMatch<TextSegment>> a,
+                                                           List<EmbeddingMatch<TextSegment>> b, int maxResults) {
+        List<EmbeddingMatch<TextSegment>> merged = new ArrayList<>(Math.min(maxResults, a.size() + b.size()));
+        int i = 0;
+        int j = 0;
+        while (merged.size() < maxResults && (i < a.size() || j < b.size())) {
+            if (j == b.size() || (i < a.size() && a.get(i).score() >= b.get(j).score())) {
+                merged.add(a.get(i++));
+            } else {
+                merged.add(b.get(j++));
+            }
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,55 @@
+package ma.emsi.lahjaily;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Produit scalaire SIMD avec l'API Vector (module incubateur jdk.incubator.vector).
+ * N'est chargée que par {@link VectorMath} lorsque le module est présent au démarrage.
+ */
+final class SimdVectorKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // Autant d'octets que de floats par registre (64 bits minimum)
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, SPECIES.length() * Byte.SIZE)));
+
+    private SimdVectorKernel() {
+    }
+
+    static float dot(float[] query, float[] data, int offset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(dimension);
+        for (; i < bound; i += SPECIES.length()) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            FloatVector v = FloatVector.fromArray(SPECIES, data, offset + i);
+            sum = q.fma(v, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            result += query[i] * data[offset + i];
+        }
+        return result;
+    }
+
+    static float dot(float[] query, byte[] codes, int offset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int i = 0;
+        int step = SPECIES.length();
+        for (; i + BYTE_SPECIES.length() <= dimension; i += step) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, i);
+            FloatVector v = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, codes, offset + i)
+                    .convertShape(VectorOperators.B2F, SPECIES, 0);
+            sum = q.fma(v, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < dimension; i++) {
+            result += query[i] * codes[offset + i];
+        }
+        return result;
+    }
+}
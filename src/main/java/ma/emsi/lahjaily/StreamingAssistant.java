@@ -0,0 +1,12 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.service.TokenStream;
+
+/**
+ * Variante en streaming de {@link Assistant} : la réponse arrive token par token
+ * (la récupération RAG a lieu avant, comme pour {@code Assistant.chat}).
+ */
+public interface StreamingAssistant {
+
+    TokenStream chat(String userMessage);
+}
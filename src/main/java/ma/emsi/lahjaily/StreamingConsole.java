@@ -0,0 +1,44 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.service.TokenStream;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Affichage dans la console d'une réponse en streaming, token par token, avec le temps
+ * jusqu'au premier token (retrieval compris) et le temps total.
+ */
+final class StreamingConsole {
+
+    private StreamingConsole() {
+    }
+
+    /**
+     * Affiche les tokens au fil de l'eau et attend la fin de la réponse.
+     *
+     * @param startNanos instant de l'appel à l'assistant ({@code System.nanoTime()})
+     * @return le texte complet de la réponse
+     */
+    static String print(TokenStream tokenStream, long startNanos) {
+        CompletableFuture<ChatResponse> done = new CompletableFuture<>();
+        AtomicLong firstToken = new AtomicLong();
+        System.out.print("Assistant : ");
+        tokenStream
+                .onPartialResponse(token -> {
+                    firstToken.compareAndSet(0, System.nanoTime());
+                    System.out.print(token);
+                    System.out.flush();
+                })
+                .onCompleteResponse(done::complete)
+                .onError(done::completeExceptionally)
+                .start();
+        ChatResponse response = done.join();
+        long end = System.nanoTime();
+        long first = firstToken.get() == 0 ? end : firstToken.get();
+        System.out.printf("%n(premier token : %d ms, total : %d ms)%n",
+                (first - startNanos) / 1_000_000, (end - startNanos) / 1_000_000);
+        return response.aiMessage().text();
+    }
+}
@@ -0,0 +1,252 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.parser.ParseContext;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingestion d'un PDF sans jamais construire le texte complet du document en mémoire.
+ * <p>
+ * Tika pousse le texte par événements SAX ; chaque page ({@code <div class="page">} du XHTML produit
+ * par le parser PDF) est découpée dès qu'elle est terminée, avec le même splitter que
+ * {@link DocumentIngestor} (300 caractères, 30 de recouvrement). Les segments portent les métadonnées
+ * habituelles ({@code file_name}, {@code absolute_directory_path}, {@code index} sur tout le document)
+ * plus le numéro de {@code page}, et sont embeddés puis rangés par lots de {@code batchSize}.
+ * La mémoire utilisée ne dépend donc que de la taille d'une page et d'un lot, pas de celle du document
+ * (le magasin, lui, grossit bien sûr avec le nombre de segments).
+ * <p>
+ * Un segment ne chevauche jamais deux pages. Un texte sans pages (autre format que PDF) ou une page
+ * démesurée est découpé par blocs de {@value #MAX_BUFFERED_CHARS} caractères, à une fin de paragraphe.
+ */
+public class StreamingPdfIngestor {
+
+    private static final int DEFAULT_BATCH_SIZE = 64;
+    private static final int MAX_BUFFERED_CHARS = 64 * 1024;
+
+    private final EmbeddingModel embeddingModel;
+    private final int batchSize;
+    private final DocumentSplitter splitter = DocumentSplitters.recursive(
+            DocumentIngestor.MAX_SEGMENT_SIZE, DocumentIngestor.MAX_OVERLAP_SIZE);
+
+    public StreamingPdfIngestor(EmbeddingModel embeddingModel) {
+        this(embeddingModel, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize nombre de segments embeddés et ajoutés au magasin en une fois
+     */
+    public StreamingPdfIngestor(EmbeddingModel embeddingModel, int batchSize) {
+        this.embeddingModel = embeddingModel;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Ajoute au magasin les segments du document, au fil de l'analyse. Les identifiants sont adressés
+     * par contenu comme dans DocumentIngestor, et les textes déjà présents dans le
+     * {@link SegmentEmbeddingCache} ne sont pas ré-embeddés.
+     */
+    public Stats ingest(Path documentPath, EmbeddingStore<TextSegment> store) {
+        long start = System.nanoTime();
+        SegmentEmbeddingCache cache = DocumentIngestor.segmentCache(embeddingModel);
+        SegmentSink sink = new SegmentSink(documentPath, store, cache);
+        PageHandler handler = new PageHandler(sink);
+        try (TikaInputStream in = TikaInputStream.get(documentPath)) {
+            // TikaInputStream sur un fichier : PDFBox le lit en accès direct, sans le copier en mémoire
+            RagRuntime.tikaParser().parse(in, handler, new org.apache.tika.metadata.Metadata(), new ParseContext());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SAXException | TikaException e) {
+            throw new IllegalStateException("Analyse impossible de " + documentPath.getFileName(), e);
+        }
+        sink.flush();
+        cache.save();
+        return new Stats(handler.pages, sink.segments, sink.embedded, sink.segments - sink.embedded,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Reçoit le texte page par page, le découpe et remplit le magasin par lots.
+     */
+    private final class SegmentSink {
+        private final EmbeddingStore<TextSegment> store;
+        private final SegmentEmbeddingCache cache;
+        private final String fileName;
+        private final String directory;
+        private final Map<String, Integer> occurrences = new HashMap<>();
+        private final List<TextSegment> pending = new ArrayList<>();
+        private int segments;
+        private int embedded;
+
+        SegmentSink(Path documentPath, EmbeddingStore<TextSegment> store, SegmentEmbeddingCache cache) {
+            this.store = store;
+            this.cache = cache;
+            this.fileName = documentPath.getFileName().toString();
+            this.directory = documentPath.toAbsolutePath().getParent().toString();
+        }
+
+        void page(int pageNumber, String text) {
+            Metadata metadata = Metadata.from("file_name", fileName).put("absolute_directory_path", directory);
+            if (pageNumber > 0) {
+                metadata.put("page", pageNumber);
+            }
+            for (TextSegment segment : splitter.split(Document.from(text, metadata))) {
+                segment.metadata().put("index", String.valueOf(segments++)); // numérotation sur tout le document
+                pending.add(segment);
+                if (pending.size() >= batchSize) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            Embedding[] embeddings = new Embedding[pending.size()];
+            List<Integer> missing = new ArrayList<>();
+            List<String> ids = new ArrayList<>(pending.size());
+            String[] hashes = new String[pending.size()];
+            for (int i = 0; i < pending.size(); i++) {
+                String hash = hashes[i] = SegmentEmbeddingCache.hash(pending.get(i).text());
+                int occurrence = occurrences.merge(hash, 1, Integer::sum);
+                ids.add(occurrence == 1 ? hash : hash + "#" + occurrence);
+                embeddings[i] = cache.get(hash);
+                if (embeddings[i] == null) {
+                    missing.add(i);
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<TextSegment> toEmbed = missing.stream().map(pending::get).toList();
+                List<Embedding> computed = embeddingModel.embedAll(toEmbed).content();
+                for (int j = 0; j < missing.size(); j++) {
+                    embeddings[missing.get(j)] = computed.get(j);
+                    cache.put(hashes[missing.get(j)], computed.get(j));
+                }
+                embedded += missing.size();
+            }
+            store.addAll(ids, Arrays.asList(embeddings), new ArrayList<>(pending));
+            pending.clear();
+        }
+    }
+
+    /**
+     * Handler SAX qui ne garde que le texte de la page en cours.
+     */
+    private static final class PageHandler extends DefaultHandler {
+        private final SegmentSink sink;
+        private final StringBuilder text = new StringBuilder();
+        private boolean inBody;
+        private int divDepth;
+        private int pageDivDepth = -1;
+        private int pages;
+
+        PageHandler(SegmentSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "body" -> inBody = true;
+                case "div" -> {
+                    divDepth++;
+                    if (pageDivDepth < 0 && "page".equals(attributes.getValue("class"))) {
+                        emit(); // texte éventuel entre deux pages
+                        pageDivDepth = divDepth;
+                        pages++;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "p", "li", "h1", "h2", "h3", "h4", "h5", "h6", "tr" -> text.append("\n\n");
+                case "div" -> {
+                    if (divDepth == pageDivDepth) {
+                        emit();
+                        pageDivDepth = -1;
+                    } else {
+                        text.append("\n\n");
+                    }
+                    divDepth--;
+                }
+                case "body" -> inBody = false;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (!inBody) {
+                return; // titre et métadonnées du <head>
+            }
+            text.append(ch, start, length);
+            if (text.length() > MAX_BUFFERED_CHARS) {
+                emitUpToLastParagraph();
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void endDocument() {
+            emit();
+        }
+
+        private void emit() {
+            String pageText = text.toString();
+            text.setLength(0);
+            if (!pageText.isBlank()) {
+                sink.page(pageDivDepth < 0 ? 0 : pages, pageText);
+            }
+        }
+
+        private void emitUpToLastParagraph() {
+            int cut = text.lastIndexOf("\n\n");
+            if (cut <= 0) {
+                cut = text.length();
+            }
+            String head = text.substring(0, cut);
+            text.delete(0, cut);
+            if (!head.isBlank()) {
+                sink.page(pageDivDepth < 0 ? 0 : pages, head);
+            }
+        }
+    }
+
+    public record Stats(int pages, int segments, int embedded, int reused, long millis) {
+        @Override
+        public String toString() {
+            return String.format("%d pages, %d segments : %d réutilisés, %d recalculés, %d ms",
+                    pages, segments, reused, embedded, millis);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.listener.ChatModelListener;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.model.output.FinishReason;
+import dev.langchain4j.model.output.TokenUsage;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ChatModel local et déterministe qui remplace Gemini pour les tests de charge : pas de clé, pas de réseau.
+ * <p>
+ * La latence suit une loi log-normale (médiane et dispersion sigma configurables), la réponse contient
+ * un nombre fixe de mots. Latence et texte ne dépendent que du prompt : deux exécutions identiques
+ * donnent les mêmes réponses. Les prompts de routage (LanguageModelQueryRouter et CustomQueryRouter)
+ * reçoivent une réponse plausible, choisie par mots communs avec les descriptions des sources.
+ * <p>
+ * {@link #streaming()} donne la version en streaming : premier token après la latence tirée,
+ * puis un token toutes les {@code tokenInterval}, sur un thread virtuel comme un vrai client HTTP.
+ */
+public class StubChatModel implements ChatModel {
+
+    private static final Pattern LM_ROUTER_OPTION = Pattern.compile("(?m)^(\\d+): (.+)$");
+    private static final Pattern LM_ROUTER_QUERY = Pattern.compile("User query: (.*)$", Pattern.DOTALL);
+    private static final Pattern YES_NO_QUERY = Pattern.compile("la requête '(.*)' porte sur", Pattern.DOTALL);
+    private static final Set<String> AI_WORDS = Set.of("rag", "ia", "intelligence", "artificielle", "embedding",
+            "embeddings", "llm", "modele", "modeles", "langchain4j", "vectorielle", "retrieval", "gemini");
+    private static final Set<String> STOP_WORDS = Set.of("le", "la", "les", "de", "des", "du", "un", "une", "et", "en",
+            "est", "que", "qui", "quoi", "sur", "pour", "dans", "par", "avec", "qu", "ce", "comment", "quel", "quelle");
+    private static final String[] VOCABULARY = ("le RAG permet au modèle de consulter des documents externes avant "
+            + "de répondre les segments les plus proches de la question sont retrouvés par similarité puis ajoutés "
+            + "au prompt ce qui réduit les hallucinations et permet de citer des sources à jour").split(" ");
+
+    private final long medianNanos;
+    private final double sigma;
+    private final int responseWords;
+    private final long tokenIntervalNanos;
+    private final List<ChatModelListener> listeners;
+
+    /**
+     * @param medianLatency latence médiane (premier token en streaming)
+     * @param sigma         dispersion de la loi log-normale (0 : latence constante ; 0.5 : p99 ≈ 3,2 × médiane)
+     * @param responseWords nombre de mots de chaque réponse
+     * @param tokenInterval délai entre deux tokens en streaming (et ajouté à la latence en mode bloquant)
+     */
+    public StubChatModel(Duration medianLatency, double sigma, int responseWords, Duration tokenInterval) {
+        this(medianLatency.toNanos(), sigma, responseWords, tokenInterval.toNanos(), List.of());
+    }
+
+    private StubChatModel(long medianNanos, double sigma, int responseWords, long tokenIntervalNanos,
+                          List<ChatModelListener> listeners) {
+        this.medianNanos = medianNanos;
+        this.sigma = sigma;
+        this.responseWords = responseWords;
+        this.tokenIntervalNanos = tokenIntervalNanos;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Copie du modèle (mêmes réglages) qui prévient ces listeners, comme le builder d'un vrai modèle.
+     */
+    public StubChatModel withListeners(List<ChatModelListener> listeners) {
+        return new StubChatModel(medianNanos, sigma, responseWords, tokenIntervalNanos, List.copyOf(listeners));
+    }
+
+    @Override
+    public List<ChatModelListener> listeners() {
+        return listeners;
+    }
+
+    @Override
+    public ChatResponse doChat(ChatRequest chatRequest) {
+        Reply reply = reply(chatRequest);
+        sleep(reply.firstTokenNanos + (reply.routing ? 0 : tokenIntervalNanos * responseWords));
+        return reply.response();
+    }
+
+    /**
+     * Vue en streaming du même modèle (mêmes réponses, même loi de latence).
+     */
+    public StreamingChatModel streaming() {
+        return new StreamingChatModel() {
+            @Override
+            public List<ChatModelListener> listeners() {
+                return listeners;
+            }
+
+            @Override
+            public void doChat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+                Reply reply = reply(chatRequest);
+                Thread.ofVirtual().start(() -> {
+                    try {
+                        sleep(reply.firstTokenNanos);
+                        String[] words = reply.text.split(" ");
+                        for (int i = 0; i < words.length; i++) {
+                            if (i > 0) {
+                                sleep(tokenIntervalNanos);
+                            }
+                            handler.onPartialResponse(i == 0 ? words[i] : " " + words[i]);
+                        }
+                        handler.onCompleteResponse(reply.response());
+                    } catch (RuntimeException e) {
+                        handler.onError(e);
+                    }
+                });
+            }
+        };
+    }
+
+    private Reply reply(ChatRequest chatRequest) {
+        String prompt = promptText(chatRequest);
+        Random random = new Random(prompt.hashCode());
+        long firstTokenNanos = (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+        int inputTokens = prompt.length() / 4;
+
+        String routing = routingAnswer(prompt);
+        if (routing != null) {
+            return new Reply(routing, true, firstTokenNanos, inputTokens);
+        }
+        StringBuilder text = new StringBuilder("Réponse simulée :");
+        for (int i = 0; i < responseWords; i++) {
+            text.append(' ').append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return new Reply(text.toString(), false, firstTokenNanos, inputTokens);
+    }
+
+    /**
+     * Réponse aux prompts de routage, ou null pour un prompt ordinaire.
+     */
+    private static String routingAnswer(String prompt) {
+        Matcher yesNo = YES_NO_QUERY.matcher(prompt);
+        if (yesNo.find()) {
+            Set<String> words = words(yesNo.group(1));
+            words.retainAll(AI_WORDS);
+            return words.isEmpty() ? "non" : "oui";
+        }
+        Matcher query = LM_ROUTER_QUERY.matcher(prompt);
+        if (prompt.startsWith("Based on the user query") && query.find()) {
+            Set<String> queryWords = words(query.group(1));
+            String best = "1";
+            int bestOverlap = 0;
+            Matcher option = LM_ROUTER_OPTION.matcher(prompt);
+            while (option.find()) {
+                Set<String> overlap = words(option.group(2));
+                overlap.retainAll(queryWords);
+                if (overlap.size() > bestOverlap) {
+                    best = option.group(1);
+                    bestOverlap = overlap.size();
+                }
+            }
+            return best;
+        }
+        return null;
+    }
+
+    private static String promptText(ChatRequest chatRequest) {
+        StringBuilder prompt = new StringBuilder();
+        for (ChatMessage message : chatRequest.messages()) {
+            if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+                prompt.append(userMessage.singleText());
+            } else if (message instanceof SystemMessage systemMessage) {
+                prompt.append(systemMessage.text());
+            } else if (message instanceof AiMessage aiMessage && aiMessage.text() != null) {
+                prompt.append(aiMessage.text());
+            }
+            prompt.append('\n');
+        }
+        return prompt.toString().strip();
+    }
+
+    private static Set<String> words(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        Set<String> words = new HashSet<>();
+        for (String word : folded.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 1 && !STOP_WORDS.contains(word)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Appel du modèle interrompu", e);
+        }
+    }
+
+    private record Reply(String text, boolean routing, long firstTokenNanos, int inputTokens) {
+        ChatResponse response() {
+            return ChatResponse.builder()
+                    .aiMessage(AiMessage.from(text))
+                    .tokenUsage(new TokenUsage(inputTokens, text.length() / 4))
+                    .finishReason(FinishReason.STOP)
+                    .build();
+        }
+    }
+}
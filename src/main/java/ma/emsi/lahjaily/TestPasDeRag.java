@@ -1,20 +1,12 @@
 package ma.emsi.lahjaily;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.input.PromptTemplate;
-import dev.langchain4j.model.output.Response;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.query.Query;
@@ -22,8 +14,6 @@ import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -31,9 +21,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -54,23 +44,22 @@ public class TestPasDeRag {
     private static void configureLogger() {
         Logger packageLogger = Logger.getLogger("dev.langchain4j");
         packageLogger.setLevel(Level.FINE);
-        ConsoleHandler handler = new ConsoleHandler();
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(Level.FINE);
+        // Écriture sur un thread dédié, et seulement pour une partie des requêtes/réponses détaillées
+        // (-Drag.log.sample=1 pour tout garder) : le journal ne ralentit plus les appels
+        AsyncSampledHandler handler = new AsyncSampledHandler(console,
+                Double.parseDouble(System.getProperty("rag.log.sample", "0.1")));
         handler.setLevel(Level.FINE);
         packageLogger.addHandler(handler);
     }
 
-    // Méthode helper pour l'ingestion
-    private static EmbeddingStore<TextSegment> ingestDocument(String resourceName, EmbeddingModel embeddingModel) {
-        Path documentPath = getPath(resourceName);
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
-        embeddingStore.addAll(embeddingsResponse.content(), segments);
-        System.out.println("Ingestion de '" + resourceName + "' terminée. " + segments.size() + " segments.");
-        return embeddingStore;
+    // Méthode helper pour l'ingestion (en arrière-plan, voir RagRuntime)
+    private static CompletableFuture<PersistentEmbeddingStore> ingestDocument(String resourceName, RagRuntime runtime) {
+        return runtime.ingest(getPath(resourceName)).thenApply(embeddingStore -> {
+            System.out.println("Ingestion de '" + resourceName + "' terminée.");
+            return embeddingStore;
+        });
     }
 
     /**
@@ -114,6 +103,8 @@ public class TestPasDeRag {
     }
 
     public static void main(String[] args) {
+        // Chargements lents (modèle ONNX, Tika) lancés en premier, en arrière-plan
+        RagRuntime runtime = RagRuntime.start();
         configureLogger();
         String llmKey = System.getenv("GEMINI_KEY");
 
@@ -125,38 +116,72 @@ public class TestPasDeRag {
                 .logResponses(true)
                 .build();
 
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        // Modèle en streaming pour l'assistant : la réponse s'affiche au fil de l'eau
+        // (le ChatModel ci-dessus reste utilisé pour le routage)
+        StreamingChatModel streamingModel = GoogleAiGeminiStreamingChatModel.builder()
+                .apiKey(llmKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .build();
+
+        EmbeddingModel embeddingModel = runtime.embeddingModel();
 
         // === PHASE 1: INGESTION (1 document) ===
-        // On n'utilise que le rag.pdf pour ce test
-        EmbeddingStore<TextSegment> ragStore = ingestDocument("rag.pdf", embeddingModel);
+        // On n'utilise que le rag.pdf pour ce test ; l'invite s'affiche sans attendre l'index
+        CompletableFuture<PersistentEmbeddingStore> ragStore = ingestDocument("rag.pdf", runtime);
 
         // === PHASE 2: RÉCUPÉRATION (Routage personnalisé) ===
 
-        // 1. Créer le ContentRetriever (un seul)
-        ContentRetriever ragRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(ragStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .build();
+        // Cache des embeddings de questions : une question répétée ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel);
+
+        // 1. Créer le ContentRetriever (un seul), branché sur l'index dès qu'il est prêt
+        CompletableFuture<ContentRetriever> ragIndex = ragStore.thenApply(store ->
+                EmbeddingStoreContentRetriever.builder()
+                        .embeddingStore(store)
+                        .embeddingModel(queryEmbeddingModel)
+                        .maxResults(2)
+                        .build());
+        ContentRetriever ragRetriever = runtime.retrieverWhenReady("rag.pdf", ragIndex);
 
         // 2. Créer une instance de notre QueryRouter personnalisé
-        QueryRouter customRouter = new CustomQueryRouter(model, ragRetriever);
+        // Le routeur par embeddings décide seul ; notre CustomQueryRouter (appel au LLM)
+        // ne sert plus qu'en secours, pour les questions ambiguës, et ses décisions sont mémorisées
+        CachingQueryRouter llmRouter = new CachingQueryRouter(new CustomQueryRouter(model, ragRetriever),
+                queryEmbeddingModel);
+        // Les routes sont embeddées à la construction : le routeur est créé une fois le modèle et l'index prêts
+        CompletableFuture<EmbeddingQueryRouter> customRouter = ragIndex.thenApply(index ->
+                new EmbeddingQueryRouter(queryEmbeddingModel,
+                        Map.of(ragRetriever, "Intelligence artificielle, RAG (Retrieval Augmented Generation), "
+                                + "LLM, embeddings, recherche de documents"),
+                        llmRouter)
+                        .sampleQueries(ragRetriever,
+                                "Qu'est-ce que le RAG ?",
+                                "Comment un LLM utilise-t-il les documents récupérés ?",
+                                "C'est quoi un embedding ?")
+                        .noRetrievalRoute(
+                                "Conversation générale sans rapport avec l'IA : salutations, météo, cuisine, sport",
+                                "Bonjour, comment ça va ?",
+                                "Quel temps fait-il aujourd'hui ?",
+                                "Donne-moi une recette de tajine"));
 
         // 3. Créer le RetrievalAugmentor
-        RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
-                .queryRouter(customRouter) // On utilise notre routeur
-                .build();
+        // Avant que le routeur soit prêt, la question part sans RAG (-Drag.startup.wait=true pour attendre)
+        RetrievalAugmentor retrievalAugmentor = runtime.augmentorWhenReady("rag.pdf", customRouter.thenApply(router ->
+                DefaultRetrievalAugmentor.builder()
+                        .queryRouter(router) // On utilise notre routeur
+                        .build()));
 
         // 4. Créer l'assistant
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingModel)
                 .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
                 .retrievalAugmentor(retrievalAugmentor)
                 .build();
 
         // Boucle de chat
         System.out.println("\nBonjour ! Je réponds aux questions sur le RAG (et ignore le reste).");
+        runtime.promptReady();
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("\nVous : ");
@@ -164,9 +189,16 @@ public class TestPasDeRag {
             if (question.equalsIgnoreCase("stop")) {
                 break;
             }
-            String reponse = assistant.chat(question);
-            System.out.println("Assistant : " + reponse);
+            long debut = System.nanoTime();
+            StreamingConsole.print(assistant.chat(question), debut);
+            runtime.answered();
         }
         scanner.close();
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+        if (RagRuntime.readyNow(customRouter) != null) {
+            System.out.println("Routage : " + customRouter.join().stats());
+        }
+        System.out.println("Cache des décisions du LLM : " + llmRouter.stats());
+        System.out.println(runtime.report());
     }
 }
\ No newline at end of file
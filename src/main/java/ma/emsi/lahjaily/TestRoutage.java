@@ -1,37 +1,37 @@
 package ma.emsi.lahjaily;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
 import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.query.router.LanguageModelQueryRouter;
-import dev.langchain4j.rag.query.router.QueryRouter;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,30 +52,131 @@ public class TestRoutage {
     private static void configureLogger() {
         Logger packageLogger = Logger.getLogger("dev.langchain4j");
         packageLogger.setLevel(Level.FINE);
-        ConsoleHandler handler = new ConsoleHandler();
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(Level.FINE);
+        // Écriture sur un thread dédié, et seulement pour une partie des requêtes/réponses détaillées
+        // (-Drag.log.sample=1 pour tout garder) : le journal ne ralentit plus les appels
+        AsyncSampledHandler handler = new AsyncSampledHandler(console,
+                Double.parseDouble(System.getProperty("rag.log.sample", "0.1")));
         handler.setLevel(Level.FINE);
         packageLogger.addHandler(handler);
     }
 
     /**
-     * Méthode helper pour charger, parser, splitter et stocker un document
-     * dans un EmbeddingStore en mémoire.
+     * Méthode helper pour charger, parser, splitter et stocker les documents
+     * (un EmbeddingStore par document), en parallèle avec le ParallelIngestionEngine,
+     * en arrière-plan (voir RagRuntime).
      */
-    private static EmbeddingStore<TextSegment> ingestDocument(String resourceName, EmbeddingModel embeddingModel) {
-        Path documentPath = getPath(resourceName);
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
-        embeddingStore.addAll(embeddingsResponse.content(), segments);
-        System.out.println("Ingestion de '" + resourceName + "' terminée. " + segments.size() + " segments.");
-        return embeddingStore;
+    private static CompletableFuture<Map<String, EmbeddingStore<TextSegment>>> ingestDocuments(RagRuntime runtime,
+                                                                                             String... resourceNames) {
+        Map<String, List<Path>> corpora = new LinkedHashMap<>();
+        for (String resourceName : resourceNames) {
+            corpora.put(resourceName, List.of(getPath(resourceName)));
+        }
+        return runtime.ingest(corpora).thenApply(result -> {
+            System.out.println("Ingestion terminée : " + result.stats());
+            return result.stores();
+        });
+    }
+
+    // Pools et connexions des shards distants, fermés en fin de programme
+    private static final List<AutoCloseable> remoteResources = new CopyOnWriteArrayList<>();
+    // Entrées du corpus recherchées sur les shards distants pour vérifier qu'ils sont à jour
+    private static final int REMOTE_PROBES = 8;
+
+    /**
+     * Répartit le magasin d'un corpus sur plusieurs shards si c'est demandé : {@code -Drag.shards=K}
+     * (K shards en mémoire, interrogés en parallèle) ou {@code -Drag.shards.remote=hôte:port,hôte:port}
+     * (processus ShardServer, une collection par corpus). Sans réglage, le magasin est gardé tel quel.
+     * <p>
+     * Les collections distantes ne sont envoyées que si elles sont vides ou pas à jour : une collection
+     * préchargée par le ShardServer, ou envoyée par un autre client avec le même index, est utilisée
+     * telle quelle.
+     */
+    private static EmbeddingStore<TextSegment> shard(String corpus, EmbeddingStore<TextSegment> store) {
+        String remote = System.getProperty("rag.shards.remote");
+        int shardCount = Integer.getInteger("rag.shards", 1);
+        if (!(store instanceof PersistentEmbeddingStore source) || (remote == null && shardCount <= 1)) {
+            return store;
+        }
+        List<EmbeddingStore<TextSegment>> shards = new ArrayList<>();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        if (remote != null) {
+            for (String address : remote.split(",")) {
+                shards.add(RemoteEmbeddingStore.of(address, corpus));
+            }
+            pool = new ForkJoinPool(shards.size()); // appels réseau bloquants : un thread par shard
+            remoteResources.add(pool::shutdown);
+            shards.forEach(remoteShard -> remoteResources.add((RemoteEmbeddingStore) remoteShard));
+        } else {
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new PersistentEmbeddingStore());
+            }
+        }
+        ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(shards, ShardedEmbeddingStore.Partitioning.BY_ID, pool);
+        if (remote != null && isUpToDate(shards, sharded, source)) {
+            System.out.println("Corpus '" + corpus + "' déjà à jour sur " + shards.size() + " shards distants.");
+            return sharded;
+        }
+        sharded.removeAll(); // collection distante vide, incomplète ou issue d'une autre version de l'index
+        List<String> ids = new ArrayList<>();
+        List<Embedding> embeddings = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        source.forEach((id, embedding, segment) -> {
+            ids.add(id);
+            embeddings.add(embedding);
+            segments.add(segment);
+        });
+        sharded.addAll(ids, embeddings, segments);
+        System.out.println("Corpus '" + corpus + "' réparti sur " + shards.size() + " shards"
+                + (remote != null ? " distants." : "."));
+        return sharded;
+    }
+
+    /**
+     * Les shards distants contiennent exactement le corpus : même nombre d'entrées, et quelques entrées
+     * réparties dans le corpus (identifiants adressés par contenu) retrouvées chacune en tête de sa recherche.
+     */
+    private static boolean isUpToDate(List<EmbeddingStore<TextSegment>> shards, ShardedEmbeddingStore sharded,
+                                      PersistentEmbeddingStore source) {
+        int remoteSize = 0;
+        for (EmbeddingStore<TextSegment> remoteShard : shards) {
+            remoteSize += ((RemoteEmbeddingStore) remoteShard).size();
+        }
+        if (remoteSize != source.size() || remoteSize == 0) {
+            return false;
+        }
+        int step = Math.max(1, source.size() / REMOTE_PROBES);
+        for (int i = 0; i < source.size(); i += step) {
+            Embedding probe = source.embeddingAt(i);
+            List<EmbeddingMatch<TextSegment>> matches = sharded.search(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(probe)
+                    .maxResults(1)
+                    .build()).matches();
+            if (matches.isEmpty() || !Arrays.equals(matches.get(0).embedding().vector(), probe.vector())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void closeRemoteShards() {
+        for (AutoCloseable resource : remoteResources) {
+            try {
+                resource.close();
+            } catch (Exception ignored) {
+                // fin du programme
+            }
+        }
     }
 
     public static void main(String[] args) {
+        // Chargements lents (modèle ONNX, Tika) lancés en premier, en arrière-plan
+        RagRuntime runtime = RagRuntime.start();
         configureLogger();
+
+        // Minuteries et compteurs de chaque étape du pipeline (affichés à la fin)
+        PipelineMetrics metrics = new PipelineMetrics();
         String llmKey = System.getenv("GEMINI_KEY");
 
         ChatModel model = GoogleAiGeminiChatModel.builder()
@@ -86,28 +187,45 @@ public class TestRoutage {
                 .logResponses(true)
                 .build();
 
-        // Modèle d'embedding partagé
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
+        // Modèle en streaming pour l'assistant : la réponse s'affiche au fil de l'eau
+        // (le ChatModel ci-dessus reste utilisé pour le routage)
+        StreamingChatModel streamingModel = GoogleAiGeminiStreamingChatModel.builder()
+                .apiKey(llmKey)
+                .modelName("gemini-2.5-flash")
+                .temperature(0.3)
+                .listeners(List.of(metrics.chatModelListener()))
+                .build();
 
         // === PHASE 1: INGESTION (2 documents) ===
-        EmbeddingStore<TextSegment> ragStore = ingestDocument("rag.pdf", embeddingModel);
-        EmbeddingStore<TextSegment> financeStore = ingestDocument("finance.pdf", embeddingModel); // AJOUTEZ CE FICHIER
+        // En arrière-plan : l'invite s'affiche sans attendre les index
+        CompletableFuture<Map<String, EmbeddingStore<TextSegment>>> stores =
+                ingestDocuments(runtime, "rag.pdf", "finance.pdf"); // AJOUTEZ CE FICHIER
 
         // === PHASE 2: RÉCUPÉRATION (avec Routage) ===
 
+        // Modèle d'embedding partagé
+        // Les 2 retrievers embeddent la même question en parallèle : les appels sont regroupés en micro-lots
+        EmbeddingModel embeddingModel = new BatchingEmbeddingModel(runtime.embeddingModel());
+
+        // Cache des embeddings de questions : une question répétée ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel);
+        EmbeddingModel timedQueryEmbeddingModel = metrics.timed(PipelineMetrics.QUERY_EMBEDDING, queryEmbeddingModel);
+
         // 1. Créer 2 ContentRetrievers
-        ContentRetriever ragRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(ragStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .build();
+        // Recherche hybride : vectorielle + BM25 (index lexical de chaque magasin), fusionnées par rang,
+        // pour retrouver les codes de cours et sigles (FIN 4316, UTEP, bls.gov...) avec 2 résultats seulement.
+        // Chacun est branché sur son index dès qu'il est prêt
+        CompletableFuture<ContentRetriever> ragIndex = stores.thenApply(ready -> new HybridContentRetriever(
+                metrics.timed(PipelineMetrics.VECTOR_SEARCH, shard("rag.pdf", ready.get("rag.pdf"))),
+                timedQueryEmbeddingModel, Bm25Index.of(ready.get("rag.pdf")), 2, 0.0));
+        ContentRetriever ragRetriever = runtime.retrieverWhenReady("rag.pdf", ragIndex);
 
         // On crée un retriever pour la finance
-        ContentRetriever financeRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(financeStore) // Il pointe vers le bon magasin
-                .embeddingModel(embeddingModel)
-                .maxResults(2)
-                .build();
+        CompletableFuture<ContentRetriever> financeIndex = stores.thenApply(ready -> new HybridContentRetriever(
+                metrics.timed(PipelineMetrics.VECTOR_SEARCH, shard("finance.pdf", ready.get("finance.pdf"))),
+                timedQueryEmbeddingModel, // Il pointe vers le bon magasin
+                Bm25Index.of(ready.get("finance.pdf")), 2, 0.0));
+        ContentRetriever financeRetriever = runtime.retrieverWhenReady("finance.pdf", financeIndex);
 
         // 2. Créer la Map de description pour le routage
         Map<ContentRetriever, String> retrieverMap = new HashMap<>();
@@ -115,23 +233,41 @@ public class TestRoutage {
         retrieverMap.put(financeRetriever, "Information sur la finance, l'économie, les banques et les investissements");
 
         // 3. Créer le QueryRouter
-        // C'est ici que la magie opère : le LLM va lire les descriptions
-        QueryRouter queryRouter = new LanguageModelQueryRouter(model, retrieverMap);
+        // Routage par similarité avec les descriptions ; le LLM (qui lit les descriptions)
+        // n'est consulté que lorsque les deux routes sont trop proches, et ses décisions sont mémorisées
+        CachingQueryRouter llmRouter = new CachingQueryRouter(new LanguageModelQueryRouter(model, retrieverMap),
+                queryEmbeddingModel);
+        // Les routes sont embeddées à la construction : le routeur est créé une fois le modèle et les index prêts
+        CompletableFuture<EmbeddingQueryRouter> queryRouter = ragIndex.thenCombine(financeIndex, (rag, finance) ->
+                new EmbeddingQueryRouter(queryEmbeddingModel, retrieverMap, llmRouter)
+                        .sampleQueries(ragRetriever,
+                                "Qu'est-ce que le RAG ?",
+                                "Comment fonctionne un modèle d'embedding ?",
+                                "À quoi sert un EmbeddingStore ?")
+                        .sampleQueries(financeRetriever,
+                                "Qu'est-ce qu'un taux d'intérêt ?",
+                                "Comment fonctionne la bourse ?",
+                                "Quel est le rôle d'une banque centrale ?"));
 
         // 4. Créer le RetrievalAugmentor (nouveau !)
-        RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
-                .queryRouter(queryRouter)
-                .build();
+        // Avant que le routeur soit prêt, la question part sans RAG (-Drag.startup.wait=true pour attendre)
+        RetrievalAugmentor retrievalAugmentor = runtime.augmentorWhenReady("rag.pdf + finance.pdf",
+                queryRouter.thenApply(router -> DefaultRetrievalAugmentor.builder()
+                        .queryRouter(metrics.timedRouter(PipelineMetrics.ROUTING, router))
+                        .contentInjector(metrics.timed(PipelineMetrics.PROMPT_ASSEMBLY,
+                                DefaultContentInjector.builder().build()))
+                        .build()));
 
         // 5. Créer l'assistant (en utilisant .retrievalAugmentor())
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingModel)
                 .chatMemory(MessageWindowChatMemory.withMaxMessages(10))
                 .retrievalAugmentor(retrievalAugmentor) // <-- NOUVELLE MÉTHODE
                 .build();
 
         // Boucle de chat
         System.out.println("\nBonjour ! Posez vos questions sur le RAG ou les voitures.");
+        runtime.promptReady();
         Scanner scanner = new Scanner(System.in);
         while (true) {
             System.out.print("\nVous : ");
@@ -139,9 +275,18 @@ public class TestRoutage {
             if (question.equalsIgnoreCase("stop")) {
                 break;
             }
-            String reponse = assistant.chat(question);
-            System.out.println("Assistant : " + reponse);
+            long debut = System.nanoTime();
+            StreamingConsole.print(assistant.chat(question), debut);
+            runtime.answered();
         }
         scanner.close();
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+        if (RagRuntime.readyNow(queryRouter) != null) {
+            System.out.println("Routage : " + queryRouter.join().stats());
+        }
+        System.out.println("Cache des décisions du LLM : " + llmRouter.stats());
+        System.out.println("Étapes du pipeline :\n" + metrics.report());
+        System.out.println(runtime.report());
+        closeRemoteShards();
     }
 }
\ No newline at end of file
@@ -1,30 +1,18 @@
 package ma.emsi.lahjaily;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.DocumentParser;
-import dev.langchain4j.data.document.DocumentSplitter;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
-import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.embedding.onnx.allminilml6v2.AllMiniLmL6V2EmbeddingModel;
-import dev.langchain4j.model.googleai.GoogleAiGeminiChatModel;
-import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.googleai.GoogleAiGeminiStreamingChatModel;
 import dev.langchain4j.rag.DefaultRetrievalAugmentor;
 import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
-import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.rag.content.retriever.WebSearchContentRetriever;
 import dev.langchain4j.rag.query.router.DefaultQueryRouter;
 import dev.langchain4j.rag.query.router.QueryRouter;
 import dev.langchain4j.service.AiServices;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import dev.langchain4j.web.search.WebSearchEngine;
 import dev.langchain4j.web.search.tavily.TavilyWebSearchEngine;
 
@@ -32,8 +20,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -61,59 +51,78 @@ public class TestWebRag { // Renommage de la classe pour le Test 5
         // Configure le logger sous-jacent (java.util.logging)
         Logger packageLogger = Logger.getLogger("dev.langchain4j");
         packageLogger.setLevel(Level.FINE); // Ajuster niveau
-        // Ajouter un handler pour la console pour faire afficher les logs
-        ConsoleHandler handler = new ConsoleHandler();
+        ConsoleHandler console = new ConsoleHandler();
+        console.setLevel(Level.FINE);
+        // Écriture sur un thread dédié, et seulement pour une partie des requêtes/réponses détaillées
+        // (-Drag.log.sample=1 pour tout garder) : le journal ne ralentit plus les appels
+        AsyncSampledHandler handler = new AsyncSampledHandler(console,
+                Double.parseDouble(System.getProperty("rag.log.sample", "0.1")));
         handler.setLevel(Level.FINE);
         packageLogger.addHandler(handler);
     }
 
     public static void main(String[] args) {
+        // Chargements lents (modèle ONNX, Tika) lancés en premier, en arrière-plan
+        RagRuntime runtime = RagRuntime.start();
+
         // ==== 1. APPEL DU CONFIGURATEUR DE LOGGER ====
         configureLogger();
 
-        // 0. Créer le ChatModel
-        ChatModel model = GoogleAiGeminiChatModel.builder()
+        // Minuteries et compteurs de chaque étape du pipeline (affichés à la fin)
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        // 0. Créer le ChatModel (en streaming : la réponse s'affiche au fil de l'eau)
+        StreamingChatModel streamingModel = GoogleAiGeminiStreamingChatModel.builder()
                 .apiKey(System.getenv("GEMINI_KEY"))
                 .modelName("gemini-2.5-flash")
                 .logRequestsAndResponses(true)
                 .temperature(0.3)
+                .listeners(List.of(metrics.chatModelListener()))
                 .build();
 
         // === PHASE 1: ENREGISTREMENT (Ingestion) ===
         // (Identique à RagNaif)
-        System.out.println("Phase 1 : Démarrage de l'ingestion...");
-        Path documentPath = getPath("rag.pdf");
-        DocumentParser parser = new ApacheTikaDocumentParser();
-        Document document = FileSystemDocumentLoader.loadDocument(documentPath, parser);
-        DocumentSplitter splitter = DocumentSplitters.recursive(300, 30);
-        List<TextSegment> segments = splitter.split(document);
-        EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
-        Response<List<Embedding>> embeddingsResponse = embeddingModel.embedAll(segments);
-        List<Embedding> embeddings = embeddingsResponse.content();
-        EmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        embeddingStore.addAll(embeddings, segments);
-        System.out.println("Phase 1 : Ingestion terminée. " + segments.size() + " segments ajoutés.");
+        // Index de rag.pdf chargé en arrière-plan pendant que l'invite s'affiche (voir RagRuntime)
+        System.out.println("Phase 1 : Démarrage de l'ingestion (en arrière-plan)...");
+        EmbeddingModel embeddingModel = runtime.embeddingModel();
+        // Index persistant : rechargé depuis le disque si rag.pdf n'a pas changé
+        CompletableFuture<PersistentEmbeddingStore> embeddingStore = runtime.ingest(getPath("rag.pdf"));
 
         // === PHASE 2: UTILISATION (Récupération PDF + Web) ===
 
+        // Cache des embeddings de questions : une question répétée ne repasse pas par le modèle ONNX
+        CachingEmbeddingModel queryEmbeddingModel = new CachingEmbeddingModel(embeddingModel);
+
         // 1. Création du ContentRetriever pour le PDF (l'existant)
-        ContentRetriever ragRetriever = EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(2) // On garde 2 résultats du PDF
-                .minScore(0.5)
-                .build();
+        // Recherche hybride (vectorielle + BM25 fusionnées par rang) ; on garde 2 résultats du PDF.
+        // Tant que l'index n'est pas prêt, seul le web répond (-Drag.startup.wait=true pour attendre)
+        ContentRetriever ragRetriever = runtime.retrieverWhenReady("rag.pdf", embeddingStore.thenApply(store ->
+                new HybridContentRetriever(
+                        metrics.timed(PipelineMetrics.VECTOR_SEARCH, store),
+                        metrics.timed(PipelineMetrics.QUERY_EMBEDDING, queryEmbeddingModel),
+                        Bm25Index.of(store), 2, 0.5)));
 
         // 2. Création du WebSearchEngine (Tavily) - NOUVEAU
-        String tavilyKey = System.getenv("TAVILY_KEY");
-        if (tavilyKey == null || tavilyKey.isEmpty()) {
-            System.err.println("Erreur : La variable d'environnement TAVILY_KEY n'est pas définie.");
-            System.err.println("Veuillez l'obtenir sur https://tavily.com/ et la configurer.");
-            return;
+        // -Drag.web=local : moteur hors ligne (web-corpus.txt) avec une latence simulée de rag.web.latency.ms
+        WebSearchEngine searchEngine;
+        if ("local".equals(System.getProperty("rag.web"))) {
+            searchEngine = new LocalWebSearchEngine(getPath("web-corpus.txt"),
+                    Duration.ofMillis(Long.getLong("rag.web.latency.ms", 300)), Duration.ofMillis(200));
+            System.out.println("Recherche web simulée (web-corpus.txt).");
+        } else {
+            String tavilyKey = System.getenv("TAVILY_KEY");
+            if (tavilyKey == null || tavilyKey.isEmpty()) {
+                System.err.println("Erreur : La variable d'environnement TAVILY_KEY n'est pas définie.");
+                System.err.println("Veuillez l'obtenir sur https://tavily.com/ et la configurer (ou lancer avec -Drag.web=local).");
+                return;
+            }
+            searchEngine = TavilyWebSearchEngine.builder()
+                    .apiKey(tavilyKey)
+                    .build();
         }
-        WebSearchEngine webSearchEngine = TavilyWebSearchEngine.builder()
-                .apiKey(tavilyKey)
-                .build();
+        // Cache des résultats : une question répétée ne refait pas d'appel réseau (conservé sur disque 24 h)
+        CachingWebSearchEngine webSearchEngine = new CachingWebSearchEngine(searchEngine, 1_000, Duration.ofHours(24),
+                Paths.get(System.getProperty("rag.index.dir", ".rag-index"), "web-search.cache"));
 
         // 3. Création du ContentRetriever pour le Web - NOUVEAU
         ContentRetriever webRetriever = WebSearchContentRetriever.builder()
@@ -121,22 +130,45 @@ public class TestWebRag { // Renommage de la classe pour le Test 5
                 // maxResults par défaut est 3, ce qui est correct.
                 .build();
 
+        // Échéance par source : la réponse n'attend pas la queue de latence du réseau
+        // (délais configurables avec -Drag.deadline.local.ms=... et -Drag.deadline.web.ms=...)
+        DeadlineContentRetriever localSource = new DeadlineContentRetriever("PDF local", ragRetriever,
+                Duration.ofMillis(Long.getLong("rag.deadline.local.ms", 250)));
+        DeadlineContentRetriever webSource = new DeadlineContentRetriever("Web",
+                metrics.timedRetriever(PipelineMetrics.WEB_RETRIEVAL, webRetriever),
+                Duration.ofMillis(Long.getLong("rag.deadline.web.ms", 800)));
+
         // 4. Création du QueryRouter (DefaultQueryRouter) - NOUVEAU
         // On lui passe les 2 ContentRetrievers
-        QueryRouter queryRouter = new DefaultQueryRouter(ragRetriever, webRetriever);
+        QueryRouter queryRouter = new DefaultQueryRouter(localSource, webSource);
+
+        // Contexte compacté : segments voisins du PDF réunis, doublons PDF/web écartés,
+        // au plus rag.context.tokens tokens de contexte (500 par défaut)
+        PackingContentAggregator contentAggregator = new PackingContentAggregator(embeddingModel,
+                Integer.getInteger("rag.context.tokens", 500),
+                Double.parseDouble(System.getProperty("rag.context.similarity", "0.92")), metrics);
 
         // 5. Création du RetrievalAugmentor - NOUVEAU
-        // Il utilisera le QueryRouter pour interroger les deux sources
+        // Il utilisera le QueryRouter pour interroger les deux sources, en parallèle sur des threads virtuels
         RetrievalAugmentor retrievalAugmentor = DefaultRetrievalAugmentor.builder()
                 .queryRouter(queryRouter)
+                .contentAggregator(contentAggregator)
+                .executor(DeadlineContentRetriever.virtualThreadExecutor())
+                .contentInjector(metrics.timed(PipelineMetrics.PROMPT_ASSEMBLY, DefaultContentInjector.builder().build()))
                 .build();
 
-        // 6. Ajout de la mémoire (inchangé)
-        ChatMemory chatMemory = MessageWindowChatMemory.withMaxMessages(10);
+        // 6. Ajout de la mémoire
+        // La fenêtre n'est plus la seule limite : le magasin retire le contexte RAG des anciens tours
+        // et résume les échanges les plus anciens au-delà de ~2000 tokens
+        CompactChatMemoryStore memoryStore = new CompactChatMemoryStore();
+        ChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .maxMessages(100)
+                .chatMemoryStore(memoryStore)
+                .build();
 
         // 7. Création de l'assistant (modifié pour utiliser l'augmentor)
-        Assistant assistant = AiServices.builder(Assistant.class)
-                .chatModel(model)
+        StreamingAssistant assistant = AiServices.builder(StreamingAssistant.class)
+                .streamingChatModel(streamingModel)
                 .chatMemory(chatMemory)
                 .retrievalAugmentor(retrievalAugmentor) // <-- NOUVELLE MÉTHODE
                 .build();
@@ -145,6 +177,7 @@ public class TestWebRag { // Renommage de la classe pour le Test 5
         System.out.println("\n==================================================");
         System.out.println("Bonjour ! Posez vos questions (infos du PDF RAG + Web).");
         System.out.println("Tapez 'stop' pour quitter.");
+        runtime.promptReady();
 
         try (Scanner scanner = new Scanner(System.in)) {
             while (true) {
@@ -153,11 +186,20 @@ public class TestWebRag { // Renommage de la classe pour le Test 5
                 if (question.equalsIgnoreCase("stop")) {
                     break;
                 }
-                String reponse = assistant.chat(question);
-                System.out.println("Assistant : " + reponse);
+                long debut = System.nanoTime();
+                StreamingConsole.print(assistant.chat(question), debut);
+                runtime.answered();
             }
         }
 
         System.out.println("\nProgramme terminé.");
+        System.out.println("Cache des embeddings de questions : " + queryEmbeddingModel.stats());
+        System.out.println("Mémoire de conversation : " + memoryStore.stats());
+        System.out.println("Sources : " + localSource.stats() + " | " + webSource.stats());
+        System.out.println("Cache de recherche web : " + webSearchEngine.stats());
+        System.out.println("Contexte : " + contentAggregator.stats());
+        System.out.println("Étapes du pipeline :\n" + metrics.report());
+        System.out.println(runtime.report());
+        webSearchEngine.save();
     }
 }
\ No newline at end of file
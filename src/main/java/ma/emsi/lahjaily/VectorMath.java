@@ -0,0 +1,98 @@
+package ma.emsi.lahjaily;
+
+/**
+ * Petites fonctions de calcul vectoriel partagées par les EmbeddingStores.
+ * <p>
+ * Le produit scalaire utilise l'API Vector (SIMD) quand le module incubateur est chargé
+ * ({@code java --add-modules jdk.incubator.vector ...}) ; sinon une boucle scalaire déroulée.
+ */
+public final class VectorMath {
+
+    private static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private VectorMath() {
+    }
+
+    /**
+     * Indique si le noyau SIMD (API Vector) est utilisé.
+     */
+    public static boolean simd() {
+        return SIMD;
+    }
+
+    /**
+     * Produit scalaire de deux vecteurs de même dimension.
+     */
+    public static double dot(float[] a, float[] b) {
+        return dot(a, b, 0, a.length);
+    }
+
+    /**
+     * Produit scalaire entre {@code query} et le vecteur stocké à partir de {@code offset} dans {@code data}.
+     */
+    public static float dot(float[] query, float[] data, int offset, int dimension) {
+        if (SIMD) {
+            // Classe chargée seulement si le module est présent
+            return SimdVectorKernel.dot(query, data, offset, dimension);
+        }
+        return scalarDot(query, data, offset, dimension);
+    }
+
+    /**
+     * Produit scalaire entre {@code query} et un vecteur quantifié en octets (int8) à partir de {@code offset}.
+     */
+    public static float dot(float[] query, byte[] codes, int offset, int dimension) {
+        if (SIMD) {
+            return SimdVectorKernel.dot(query, codes, offset, dimension);
+        }
+        float s0 = 0;
+        float s1 = 0;
+        int i = 0;
+        for (; i + 1 < dimension; i += 2) {
+            s0 += query[i] * codes[offset + i];
+            s1 += query[i + 1] * codes[offset + i + 1];
+        }
+        for (; i < dimension; i++) {
+            s0 += query[i] * codes[offset + i];
+        }
+        return s0 + s1;
+    }
+
+    static float scalarDot(float[] query, float[] data, int offset, int dimension) {
+        // 4 accumulateurs indépendants : moins de dépendances entre itérations
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (; i + 3 < dimension; i += 4) {
+            s0 += query[i] * data[offset + i];
+            s1 += query[i + 1] * data[offset + i + 1];
+            s2 += query[i + 2] * data[offset + i + 2];
+            s3 += query[i + 3] * data[offset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += query[i] * data[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Copie normalisée (norme 1) du vecteur : sur des vecteurs normalisés, le cosinus est un produit scalaire.
+     */
+    public static float[] normalized(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[vector.length];
+        if (norm == 0) {
+            return result;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) (vector[i] / norm);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingQueryRouterTest {
+
+    /**
+     * Toutes les questions ont le même vecteur : chacune est voisine des autres.
+     */
+    private static final EmbeddingModel SAME_VECTOR = new EmbeddingModel() {
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            return Response.from(textSegments.stream().map(segment -> Embedding.from(new float[]{1, 0})).toList());
+        }
+
+        @Override
+        public int dimension() {
+            return 2;
+        }
+    };
+
+    private final ContentRetriever retriever = query -> List.of();
+
+    @Test
+    void emptyDecisionIsNotSharedWithNeighbours() {
+        // Premier appel : échec du LLM (repli DO_NOT_ROUTE, liste vide), puis décisions normales
+        Deque<List<ContentRetriever>> decisions = new ArrayDeque<>(List.of(List.of(), List.of(retriever)));
+        AtomicInteger calls = new AtomicInteger();
+        CachingQueryRouter router = new CachingQueryRouter(query -> {
+            calls.incrementAndGet();
+            return decisions.size() > 1 ? decisions.poll() : decisions.peek();
+        }, SAME_VECTOR);
+
+        assertTrue(router.route(Query.from("Qu'est-ce que le RAG ?")).isEmpty());
+        // Même question : décision vide reprise (brièvement)
+        assertTrue(router.route(Query.from("Qu'est-ce que le RAG ?")).isEmpty());
+        assertEquals(1, calls.get());
+
+        // Question voisine : le routeur est rappelé au lieu de reprendre la décision vide
+        assertEquals(List.of(retriever), List.copyOf(router.route(Query.from("C'est quoi le RAG ?"))));
+        assertEquals(2, calls.get());
+
+        // Une décision non vide sert bien aux questions voisines
+        assertEquals(List.of(retriever), List.copyOf(router.route(Query.from("Définition du RAG"))));
+        assertEquals(2, calls.get());
+    }
+}
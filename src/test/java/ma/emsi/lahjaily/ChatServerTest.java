@@ -0,0 +1,144 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import dev.langchain4j.model.chat.StreamingChatModel;
+import dev.langchain4j.model.chat.request.ChatRequest;
+import dev.langchain4j.model.chat.response.ChatResponse;
+import dev.langchain4j.model.chat.response.StreamingChatResponseHandler;
+import dev.langchain4j.service.AiServices;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatServerTest {
+
+    /**
+     * Répond par le nombre de messages reçus : 1 pour une conversation vide (la question seule).
+     */
+    private static final ChatModel MESSAGE_COUNTER = new ChatModel() {
+        @Override
+        public ChatResponse doChat(ChatRequest chatRequest) {
+            return ChatResponse.builder()
+                    .aiMessage(AiMessage.from(String.valueOf(chatRequest.messages().size())))
+                    .build();
+        }
+    };
+
+    private static final StreamingChatModel FAILING_STREAM = new StreamingChatModel() {
+        @Override
+        public void doChat(ChatRequest chatRequest, StreamingChatResponseHandler handler) {
+            throw new IllegalStateException("modèle indisponible");
+        }
+    };
+
+    @TempDir
+    Path spillDirectory;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private CompactChatMemoryStore memoryStore;
+    private ChatServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        memoryStore = new CompactChatMemoryStore(2_000, 4, CompactChatMemoryStore.Summarizer.extractive(),
+                Duration.ZERO, spillDirectory);
+        SessionAssistant assistant = AiServices.builder(SessionAssistant.class)
+                .chatModel(MESSAGE_COUNTER)
+                .streamingChatModel(FAILING_STREAM)
+                .chatMemoryProvider(sessionId -> MessageWindowChatMemory.builder()
+                        .id(sessionId)
+                        .maxMessages(100)
+                        .chatMemoryStore(memoryStore)
+                        .build())
+                .build();
+        server = new ChatServer(assistant, 4, Duration.ofSeconds(1), new PipelineMetrics(), () -> true,
+                Duration.ZERO, memoryStore);
+        server.start(0);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void deleteForgetsTheConversation() throws Exception {
+        assertEquals("1", ask("s1"));
+        assertEquals("3", ask("s1"));
+
+        HttpResponse<String> deleted = send(HttpRequest.newBuilder(chatUri("s1")).DELETE());
+        assertEquals(204, deleted.statusCode());
+
+        assertEquals("1", ask("s1"));
+    }
+
+    @Test
+    void deleteForgetsSpilledConversation() throws Exception {
+        assertEquals("1", ask("s2"));
+        memoryStore.spillIdleSessions();
+        assertEquals(0, memoryStore.stats().sessionsInMemory());
+
+        send(HttpRequest.newBuilder(chatUri("s2")).DELETE());
+
+        assertEquals("1", ask("s2"));
+    }
+
+    @Test
+    void idleSessionsAreForgotten() throws Exception {
+        assertEquals("1", ask("s3"));
+
+        server.forgetIdleSessions();
+
+        assertEquals(0, server.stats().sessions());
+        assertEquals(0, memoryStore.stats().sessionsInMemory());
+        assertEquals("1", ask("s3"));
+    }
+
+    @Test
+    void tooLongQuestionIsRejected() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(chatUri("s4"))
+                .POST(HttpRequest.BodyPublishers.ofString("a".repeat(ChatServer.MAX_BODY_BYTES + 1))));
+
+        assertEquals(413, response.statusCode());
+        assertEquals("1", ask("s4"));
+    }
+
+    @Test
+    void streamStartFailureIsWrittenToTheStream() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + server.port() + "/chat/stream?session=s5"))
+                .POST(HttpRequest.BodyPublishers.ofString("Qu'est-ce que le RAG ?")));
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("[Erreur de l'assistant : modèle indisponible]"), response.body());
+        assertEquals(1, server.stats().failures());
+    }
+
+    private String ask(String sessionId) throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(chatUri(sessionId))
+                .POST(HttpRequest.BodyPublishers.ofString("Qu'est-ce que le RAG ?")));
+        assertEquals(200, response.statusCode());
+        return response.body();
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI chatUri(String sessionId) {
+        return URI.create("http://localhost:" + server.port() + "/chat?session=" + sessionId);
+    }
+}
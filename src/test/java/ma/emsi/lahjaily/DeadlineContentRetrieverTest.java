@@ -0,0 +1,46 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeadlineContentRetrieverTest {
+
+    @Test
+    void lateSearchesForTheSameQuestionAreCoalesced() throws Exception {
+        AtomicInteger searches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        DeadlineContentRetriever retriever = new DeadlineContentRetriever("Web", query -> {
+            searches.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(Content.from("résultat pour " + query.text()));
+        }, Duration.ofMillis(20));
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(retriever.retrieve(Query.from("Taux directeur de la BCE ?")).isEmpty());
+        }
+        assertTrue(retriever.retrieve(Query.from("Autre question")).isEmpty());
+        assertEquals(2, searches.get());
+        assertEquals(4, retriever.stats().joined());
+
+        // Recherche terminée : la question suivante en lance une nouvelle
+        release.countDown();
+        TimeUnit.MILLISECONDS.sleep(100);
+        List<Content> contents = retriever.retrieve(Query.from("Taux directeur de la BCE ?"));
+        assertEquals(3, searches.get());
+        assertEquals("résultat pour Taux directeur de la BCE ?", contents.get(0).textSegment().text());
+    }
+}
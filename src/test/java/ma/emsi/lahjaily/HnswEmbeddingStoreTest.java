@@ -0,0 +1,16 @@
+package ma.emsi.lahjaily;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HnswEmbeddingStoreTest {
+
+    @Test
+    void invalidGraphParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HnswEmbeddingStore(1, 200, 64));
+        assertThrows(IllegalArgumentException.class, () -> new HnswEmbeddingStore(16, 0, 64));
+        assertThrows(IllegalArgumentException.class, () -> new HnswEmbeddingStore(16, 200, 0));
+        assertThrows(IllegalArgumentException.class, () -> new HnswEmbeddingStore().efSearch(0));
+    }
+}
@@ -0,0 +1,53 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class ParallelIngestionEngineTest {
+
+    private static final EmbeddingModel FAILING_MODEL = new EmbeddingModel() {
+        @Override
+        public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+            throw new IllegalStateException("modèle indisponible");
+        }
+
+        @Override
+        public int dimension() {
+            return 4;
+        }
+    };
+
+    @TempDir
+    Path documents;
+
+    @Test
+    void embeddingFailureAbortsInsteadOfBlocking() throws Exception {
+        // Plus de documents que la capacité des files (16) : les étapes amont finissent par s'y bloquer
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Path file = documents.resolve("document-" + i + ".txt");
+            Files.writeString(file, "Document numéro " + i + ". " + "Un paragraphe de texte. ".repeat(50));
+            paths.add(file);
+        }
+        ParallelIngestionEngine engine = new ParallelIngestionEngine(FAILING_MODEL, 2, 2, 4, 16);
+
+        IllegalStateException error = assertTimeoutPreemptively(Duration.ofSeconds(60),
+                () -> assertThrows(IllegalStateException.class, () -> engine.ingest(Map.of("corpus", paths))));
+        assertEquals("modèle indisponible", error.getCause().getMessage());
+    }
+}
@@ -0,0 +1,49 @@
+package ma.emsi.lahjaily;
+
+import dev.langchain4j.data.embedding.Embedding;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentEmbeddingCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedAndStayOutOfTheFile() {
+        Path file = directory.resolve("Model.cache");
+        SegmentEmbeddingCache cache = SegmentEmbeddingCache.open(file, 3);
+        cache.put(hash("a"), vector(1));
+        cache.put(hash("b"), vector(2));
+        cache.put(hash("c"), vector(3));
+        cache.get(hash("a")); // "b" devient le moins récemment utilisé
+        cache.put(hash("d"), vector(4));
+
+        assertEquals(3, cache.size());
+        assertFalse(cache.contains(hash("b")));
+        cache.save();
+
+        // Relu depuis le disque : mêmes entrées, même ordre LRU ("c" est maintenant le plus ancien)
+        SegmentEmbeddingCache reopened = SegmentEmbeddingCache.open(file, 3);
+        assertEquals(3, reopened.size());
+        assertArrayEquals(new float[]{1, 1}, reopened.get(hash("a")).vector());
+        reopened.put(hash("e"), vector(5));
+        assertFalse(reopened.contains(hash("c")));
+        assertTrue(reopened.contains(hash("d")));
+    }
+
+    private static String hash(String text) {
+        return SegmentEmbeddingCache.hash(text);
+    }
+
+    private static Embedding vector(float value) {
+        return Embedding.from(new float[]{value, value});
+    }
+}